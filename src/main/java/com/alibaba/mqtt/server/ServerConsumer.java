@@ -17,43 +17,84 @@
 
 package com.alibaba.mqtt.server;
 
+import com.alibaba.mqtt.server.callback.BatchMessageListener;
 import com.alibaba.mqtt.server.callback.MessageListener;
 import com.alibaba.mqtt.server.callback.StatusListener;
 import com.alibaba.mqtt.server.config.ChannelConfig;
 import com.alibaba.mqtt.server.config.ConsumerConfig;
 import com.alibaba.mqtt.server.model.MessageProperties;
+import com.alibaba.mqtt.server.model.ReceivedMessage;
 import com.alibaba.mqtt.server.model.StatusNotice;
 import com.alibaba.mqtt.server.network.AbstractChannel;
+import com.alibaba.mqtt.server.network.AckTracker;
+import com.alibaba.mqtt.server.network.AdaptivePrefetch;
+import com.alibaba.mqtt.server.network.ConsumeChannel;
+import com.alibaba.mqtt.server.network.DeliveryBatcher;
+import com.alibaba.mqtt.server.network.FlowController;
+import com.alibaba.mqtt.server.util.BoundedExecutor;
+import com.alibaba.mqtt.server.util.DeflateCodec;
+import com.alibaba.mqtt.server.util.OrderedExecutor;
 import com.alibaba.mqtt.server.util.ThreadFactoryImpl;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Delivery;
 import com.rabbitmq.client.Envelope;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 
 public class ServerConsumer extends AbstractChannel {
-    private static final int CONNECTION_NUM = 4;
-    private Connection[] connections = new Connection[CONNECTION_NUM];
-    private Channel[] channels = new Channel[CONNECTION_NUM];
+    private static final String STATUS_SUBSCRIPTION_PREFIX = "STATUS/";
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final List<ConsumeChannel> consumeChannels = new CopyOnWriteArrayList<>();
+    /**
+     * channels of retired connections with the time they were retired, guarded by subscribeLock
+     */
+    private final Map<ConsumeChannel, Long> retiredChannels = new LinkedHashMap<>();
+    private final Object subscribeLock = new Object();
     private ConsumerConfig consumerConfig;
-    private ExecutorService msgExecutor;
+    private ThreadPoolExecutor msgExecutor;
+    private BoundedExecutor virtualExecutor;
+    /**
+     * runs MessageListener and BatchMessageListener calls, virtualExecutor when available, msgExecutor otherwise
+     */
+    private Executor listenerExecutor;
+    private OrderedExecutor orderedExecutor;
     private ExecutorService statusExecutor;
-    private static ScheduledThreadPoolExecutor scheduler =
-            new ScheduledThreadPoolExecutor(1, new ThreadFactoryImpl("scan_server_consumer_callback_"));
+    private ScheduledThreadPoolExecutor scheduler;
     private Map<String, StatusListener> subscribeStatusMap = new ConcurrentHashMap<>();
     private Map<String, MessageListener> subscribeTopicMap = new ConcurrentHashMap<>();
+    private Map<String, BatchMessageListener> subscribeBatchMap = new ConcurrentHashMap<>();
+    private DeflateCodec deflateCodec = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+    private AdaptivePrefetch adaptivePrefetch;
+    private FlowController flowController;
+    /**
+     * whether the consumers are cancelled for flow control, only changed while holding subscribeLock
+     */
+    private boolean consumersPaused;
 
     public ServerConsumer(ChannelConfig channelConfig, ConsumerConfig consumerConfig) {
         super(channelConfig);
@@ -61,19 +102,66 @@ public class ServerConsumer extends AbstractChannel {
     }
 
     public void start() throws IOException, TimeoutException {
+        if (consumerConfig.getOrderKeySelector() != null
+                && (Math.max(1, consumerConfig.getConnectionNum()) * Math.max(1, consumerConfig.getChannelNumPerConnection()) > 1
+                || consumerConfig.isElasticConnection())) {
+            // the broker spreads a key over every channel, there is no order between channels to keep
+            throw new IOException("orderKeySelector needs a single channel, set connectionNum and "
+                    + "channelNumPerConnection to 1 and disable elasticConnection");
+        }
         if (!started.compareAndSet(false, true)) {
             return;
         }
         super.start();
-        for (int i = 0; i < CONNECTION_NUM; i++) {
-            connections[i] = factory.newConnection();
-            channels[i] = connections[i].createChannel();
+        flowController = new FlowController(consumerConfig.getFlowControlHighMessages(),
+                consumerConfig.getFlowControlLowMessages(), consumerConfig.getFlowControlHighBytes(),
+                consumerConfig.getFlowControlLowBytes(), new Runnable() {
+            @Override
+            public void run() {
+                // basicCancel and basicConsume wait for the broker, keep them off the delivery threads
+                try {
+                    scheduler.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            applyFlowControl();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // stopped
+                }
+            }
+        });
+        if (consumerConfig.isVirtualThreads()) {
+            ExecutorService virtualThreads = BoundedExecutor.newVirtualThreadPerTaskExecutor();
+            if (virtualThreads != null) {
+                virtualExecutor = new BoundedExecutor(virtualThreads, consumerConfig.getVirtualThreadMaxConcurrency());
+            }
+        }
+        int consumeThreads;
+        if (virtualExecutor != null) {
+            listenerExecutor = virtualExecutor;
+            consumeThreads = consumerConfig.getVirtualThreadMaxConcurrency();
+        } else {
+            msgExecutor = new ThreadPoolExecutor(
+                    consumerConfig.getMinConsumeThreadNum(),
+                    consumerConfig.getMaxConsumeThreadNum(),
+                    1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<>(30000));
+            listenerExecutor = msgExecutor;
+            consumeThreads = consumerConfig.getMaxConsumeThreadNum();
+        }
+        if (consumerConfig.isAdaptivePrefetch()) {
+            adaptivePrefetch = new AdaptivePrefetch(consumeThreads,
+                    consumerConfig.getConnectionNum() * consumerConfig.getChannelNumPerConnection(),
+                    consumerConfig.getMinPrefetchCount(), consumerConfig.getMaxPrefetchCount(),
+                    consumerConfig.getAdaptiveQueueDelayMills());
+        }
+
+        if (consumerConfig.getOrderKeySelector() != null) {
+            int laneNum = consumerConfig.getOrderedLaneNum() > 0 ?
+                    consumerConfig.getOrderedLaneNum() : consumerConfig.getMaxConsumeThreadNum();
+            orderedExecutor = new OrderedExecutor("server_consumer_ordered_", laneNum, consumerConfig.getOrderedLaneQueueSize());
         }
-        msgExecutor = new ThreadPoolExecutor(
-                consumerConfig.getMinConsumeThreadNum(),
-                consumerConfig.getMaxConsumeThreadNum(),
-                1, TimeUnit.MINUTES,
-                new LinkedBlockingQueue<>(30000));
 
         statusExecutor = new ThreadPoolExecutor(
                 consumerConfig.getMinConsumeThreadNum(),
@@ -81,29 +169,22 @@ public class ServerConsumer extends AbstractChannel {
                 1, TimeUnit.MINUTES,
                 new LinkedBlockingQueue<>(30000));
 
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryImpl("scan_server_consumer_callback_", true));
+        for (int i = 0; i < Math.max(1, consumerConfig.getConnectionNum()); i++) {
+            addConnection();
+        }
+
         scheduler.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
                 try {
-                    for (int i = 0; i < CONNECTION_NUM; i++) {
-                        Channel channel = channels[i];
-                        if (!channel.isOpen()) {
-                            channels[i] = connections[i].createChannel();
-                            Channel finalChannel = channels[i];
-                            subscribeTopicMap.forEach((topic, messageListener) -> {
-                                try {
-                                    _subscribeTopic(finalChannel, topic, messageListener);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                            });
-                            subscribeStatusMap.forEach((mqttGroupId, statusListener) -> {
-                                try {
-                                    _subscribeStatus(finalChannel, mqttGroupId, statusListener);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                            });
+                    for (ConsumeChannel consumeChannel : consumeChannels) {
+                        if (!consumeChannel.isOpen()) {
+                            synchronized (subscribeLock) {
+                                consumeChannel.recreate();
+                                setChannelPrefetch(consumeChannel.getChannel());
+                                subscribeAll(consumeChannel);
+                            }
                         }
                     }
                 } catch (Throwable t) {
@@ -111,11 +192,232 @@ public class ServerConsumer extends AbstractChannel {
                 }
             }
         }, 5, 5, TimeUnit.SECONDS);
+        if (adaptivePrefetch != null) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    int prefetch = adaptivePrefetch.getPrefetch();
+                    if (adaptivePrefetch.adjust(getConsumeQueueSize(), consumeChannels.size()) == prefetch) {
+                        return;
+                    }
+                    for (ConsumeChannel consumeChannel : consumeChannels) {
+                        try {
+                            consumeChannel.getChannel().basicQos(adaptivePrefetch.getPrefetch(), true);
+                        } catch (Throwable t) {
+                        }
+                    }
+                }
+            }, 1, 1, TimeUnit.SECONDS);
+        }
+        if (consumerConfig.getAckBatchSize() > 1) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (ConsumeChannel consumeChannel : consumeChannels) {
+                        consumeChannel.flushAcks();
+                    }
+                }
+            }, consumerConfig.getAckIntervalMills(), consumerConfig.getAckIntervalMills(), TimeUnit.MILLISECONDS);
+        }
+        if (consumerConfig.isElasticConnection()) {
+            final long interval = consumerConfig.getElasticCheckIntervalMills();
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        rebalance(interval);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * open a connection with its channels and subscribe them to everything subscribed so far
+     */
+    private void addConnection() throws IOException, TimeoutException {
+        Connection connection = factory.newConnection();
+        synchronized (subscribeLock) {
+            for (int i = 0; i < Math.max(1, consumerConfig.getChannelNumPerConnection()); i++) {
+                ConsumeChannel consumeChannel = new ConsumeChannel(connection, consumerConfig.getAckBatchSize(), flowController);
+                setChannelPrefetch(consumeChannel.getChannel());
+                subscribeAll(consumeChannel);
+                consumeChannels.add(consumeChannel);
+            }
+            connections.add(connection);
+        }
+    }
+
+    /**
+     * cancel the consumers of the newest connection, it is closed by a later check once received deliveries are settled
+     */
+    private void retireConnection() {
+        synchronized (subscribeLock) {
+            Connection connection = connections.remove(connections.size() - 1);
+            for (ConsumeChannel consumeChannel : consumeChannels) {
+                if (consumeChannel.getConnection() == connection) {
+                    consumeChannels.remove(consumeChannel);
+                    consumeChannel.cancelAll();
+                    retiredChannels.put(consumeChannel, System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a connection while the channels deliver more than elasticScaleUpRate messages per second each
+     * and the consume threads keep up, remove one while they deliver less than elasticScaleDownRate.
+     */
+    private void rebalance(long intervalMills) throws IOException, TimeoutException {
+        synchronized (subscribeLock) {
+            closeRetired(false);
+        }
+        long delivered = 0;
+        long unacked = 0;
+        for (ConsumeChannel consumeChannel : consumeChannels) {
+            delivered += consumeChannel.sampleDelivered();
+            unacked += consumeChannel.getUnacked();
+        }
+        int channels = Math.max(1, consumeChannels.size());
+        double rate = delivered * 1000.0 / intervalMills / channels;
+        if (rate > consumerConfig.getElasticScaleUpRate()
+                && unacked / channels < consumerConfig.getElasticMaxBacklog()
+                && connections.size() < consumerConfig.getMaxConnectionNum()) {
+            addConnection();
+        } else if (rate < consumerConfig.getElasticScaleDownRate()
+                && connections.size() > Math.max(1, consumerConfig.getConnectionNum())) {
+            retireConnection();
+        }
+    }
+
+    private void setChannelPrefetch(Channel channel) throws IOException {
+        int channelPrefetch = adaptivePrefetch != null ? adaptivePrefetch.getPrefetch() : consumerConfig.getChannelPrefetchCount();
+        if (channelPrefetch > 0) {
+            channel.basicQos(channelPrefetch, true);
+        }
+    }
+
+    /**
+     * basicQos with global=false only applies to consumers started afterwards, so it is set right before each basicConsume
+     */
+    private void setSubscriptionPrefetch(Channel channel, String firstTopic) throws IOException {
+        Map<String, Integer> topicPrefetchCounts = consumerConfig.getTopicPrefetchCounts();
+        if (consumerConfig.getPrefetchCount() <= 0 && (topicPrefetchCounts == null || topicPrefetchCounts.isEmpty())) {
+            return;
+        }
+        Integer prefetch = topicPrefetchCounts == null || firstTopic == null ? null : topicPrefetchCounts.get(firstTopic);
+        channel.basicQos(prefetch == null ? Math.max(0, consumerConfig.getPrefetchCount()) : prefetch, false);
+    }
+
+    private void subscribeAll(ConsumeChannel consumeChannel) {
+        if (consumersPaused) {
+            return;
+        }
+        subscribeTopicMap.forEach((topic, messageListener) -> {
+            try {
+                _subscribeTopic(consumeChannel, topic, messageListener);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        subscribeBatchMap.forEach((topic, batchMessageListener) -> {
+            try {
+                _subscribeTopic(consumeChannel, topic, batchMessageListener);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        subscribeStatusMap.forEach((mqttGroupId, statusListener) -> {
+            try {
+                _subscribeStatus(consumeChannel, mqttGroupId, statusListener);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * cancel every consumer while the flow controller is paused and subscribe them again once it resumes,
+     * deliveries already received keep being processed and acked in the meantime
+     */
+    private void applyFlowControl() {
+        synchronized (subscribeLock) {
+            boolean paused = flowController.isPaused();
+            if (paused == consumersPaused) {
+                return;
+            }
+            consumersPaused = paused;
+            for (ConsumeChannel consumeChannel : consumeChannels) {
+                if (paused) {
+                    consumeChannel.cancelAll();
+                } else {
+                    subscribeAll(consumeChannel);
+                }
+            }
+        }
+    }
+
+    /**
+     * hand a delivery the executors have no room for back to the broker, so it is redelivered instead of lost
+     */
+    private void requeue(ConsumeChannel consumeChannel, AckTracker ackTracker, long deliveryTag, int bytes) {
+        try {
+            ackTracker.nack(deliveryTag, true);
+        } catch (IOException | RuntimeException e) {
+        } finally {
+            consumeChannel.onSettled(1, bytes);
+        }
+    }
+
+    /**
+     * close the retired connections whose channels have no delivery left to settle, or that waited
+     * elasticRetireTimeoutMills, closing earlier would drop the acks of listeners still running
+     *
+     * @param force close all of them, when the consumer stops
+     */
+    private void closeRetired(boolean force) {
+        long now = System.currentTimeMillis();
+        Set<Connection> busy = new HashSet<>();
+        for (Map.Entry<ConsumeChannel, Long> entry : retiredChannels.entrySet()) {
+            if (!force && entry.getKey().getUnacked() > 0
+                    && now - entry.getValue() < consumerConfig.getElasticRetireTimeoutMills()) {
+                busy.add(entry.getKey().getConnection());
+            }
+        }
+        Iterator<ConsumeChannel> iterator = retiredChannels.keySet().iterator();
+        while (iterator.hasNext()) {
+            ConsumeChannel consumeChannel = iterator.next();
+            if (busy.contains(consumeChannel.getConnection())) {
+                continue;
+            }
+            consumeChannel.flushAcks();
+            try {
+                consumeChannel.getConnection().close();
+            } catch (Throwable t) {
+                // already closed along with another channel of the connection
+            }
+            iterator.remove();
+        }
     }
 
     public void stop() throws IOException {
-        for (int i = 0; i < CONNECTION_NUM; i++) {
-            connections[i].close();
+        scheduler.shutdownNow();
+        synchronized (subscribeLock) {
+            closeRetired(true);
+            for (ConsumeChannel consumeChannel : consumeChannels) {
+                consumeChannel.flushAcks();
+            }
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+        if (orderedExecutor != null) {
+            orderedExecutor.shutdown();
+        }
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdown();
         }
     }
 
@@ -123,72 +425,316 @@ public class ServerConsumer extends AbstractChannel {
         if (firstTopic == null || messageListener == null) {
             return;
         }
-        subscribeTopicMap.put(firstTopic, messageListener);
-        for (int i = 0; i < CONNECTION_NUM; i++) {
-            Channel channel = channels[i];
-            _subscribeTopic(channel, firstTopic, messageListener);
+        synchronized (subscribeLock) {
+            subscribeTopicMap.put(firstTopic, messageListener);
+            if (consumersPaused) {
+                // started with the others once the flow controller resumes
+                return;
+            }
+            for (ConsumeChannel consumeChannel : consumeChannels) {
+                _subscribeTopic(consumeChannel, firstTopic, messageListener);
+            }
         }
     }
 
+    /**
+     * consume the topic on a channel opened by the caller, it is not resubscribed when the channel is recreated
+     *
+     * @deprecated use {@link #subscribeTopic(String, MessageListener)}, which consumes on every channel of this consumer
+     */
+    @Deprecated
     public void _subscribeTopic(Channel channel, String firstTopic, MessageListener messageListener) throws IOException {
-        channel.basicConsume(firstTopic, false, new DefaultConsumer(channel) {
+        _subscribeTopic(wrap(channel), firstTopic, messageListener);
+    }
+
+    private void _subscribeTopic(ConsumeChannel consumeChannel, String firstTopic, MessageListener messageListener)
+            throws IOException {
+        Channel channel = consumeChannel.getChannel();
+        synchronized (channel) {
+            setSubscriptionPrefetch(channel, firstTopic);
+            consumeChannel.addConsumer(firstTopic, consumeTopic(consumeChannel, channel, firstTopic, messageListener));
+        }
+    }
+
+    private String consumeTopic(ConsumeChannel consumeChannel, Channel channel, String firstTopic,
+                                MessageListener messageListener) throws IOException {
+        final AckTracker ackTracker = consumeChannel.getAckTracker();
+        return channel.basicConsume(firstTopic, false, new DefaultConsumer(channel) {
             @Override
             public void handleDelivery(String consumerTag, Envelope envelope,
                                        AMQP.BasicProperties properties, byte[] body) {
-                msgExecutor.submit(new Runnable() {
+                consumeChannel.onDelivery(body.length);
+                // in ordered mode the properties are needed up front to pick the lane
+                final MessageProperties messageProperties = orderedExecutor == null ? null : new MessageProperties(properties);
+                Runnable task = new Runnable() {
                     @Override
                     public void run() {
+                        long begin = System.nanoTime();
                         try {
-                            messageListener.process(properties.getMessageId(), new MessageProperties(properties), body);
-                            channel.basicAck(envelope.getDeliveryTag(), false);
+                            messageListener.process(properties.getMessageId(),
+                                    messageProperties != null ? messageProperties : new MessageProperties(properties),
+                                    decode(properties, body));
+                            if (adaptivePrefetch != null) {
+                                adaptivePrefetch.record(System.nanoTime() - begin);
+                            }
+                            ackTracker.ack(envelope.getDeliveryTag());
                         } catch (Throwable t) {
                             try {
-                                channel.basicNack(envelope.getDeliveryTag(), false, false);
-                            } catch (IOException e) {
+                                ackTracker.nack(envelope.getDeliveryTag(), false);
+                            } catch (IOException | RuntimeException e) {
                             }
+                        } finally {
+                            consumeChannel.onSettled(1, body.length);
                         }
                     }
-                });
+                };
+                if (orderedExecutor != null) {
+                    dispatchOrdered(consumeChannel, ackTracker, envelope.getDeliveryTag(), body.length,
+                            messageProperties, task);
+                    return;
+                }
+                try {
+                    listenerExecutor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    requeue(consumeChannel, ackTracker, envelope.getDeliveryTag(), body.length);
+                }
             }
         });
     }
 
+    /**
+     * Hand a delivery to the lane of its key, blocking the delivery thread of the channel while the lane is full.
+     * A delivery is never requeued here, the broker would redeliver it after later messages of its key.
+     */
+    private void dispatchOrdered(ConsumeChannel consumeChannel, AckTracker ackTracker, long deliveryTag, int bytes,
+                                 MessageProperties messageProperties, Runnable task) {
+        Object key;
+        try {
+            key = consumerConfig.getOrderKeySelector().select(messageProperties);
+        } catch (Throwable t) {
+            // settled like a listener failure
+            try {
+                ackTracker.nack(deliveryTag, false);
+            } catch (IOException | RuntimeException e) {
+            } finally {
+                consumeChannel.onSettled(1, bytes);
+            }
+            return;
+        }
+        try {
+            orderedExecutor.execute(key, task);
+        } catch (RejectedExecutionException e) {
+            // stopping, the delivery stays unacked and is redelivered once the channel is closed
+            consumeChannel.onSettled(1, bytes);
+        }
+    }
+
+    /**
+     * @return the ConsumeChannel of channel, or a new one if it is not a channel of this consumer.
+     * Nobody flushes held acks of a channel from outside, so it acks every delivery right away
+     */
+    private ConsumeChannel wrap(Channel channel) {
+        for (ConsumeChannel consumeChannel : consumeChannels) {
+            if (consumeChannel.getChannel() == channel) {
+                return consumeChannel;
+            }
+        }
+        return new ConsumeChannel(channel, 0, flowController);
+    }
+
+    private int getConsumeQueueSize() {
+        int size = virtualExecutor != null ? virtualExecutor.getQueueSize() : msgExecutor.getQueue().size();
+        return size + (orderedExecutor == null ? 0 : orderedExecutor.getQueueSize());
+    }
+
+    /**
+     * Consume the topic in batches, see {@link BatchMessageListener}.
+     * Set ConsumerConfig.ackBatchSize to ack every batch with a single cumulative ack.
+     *
+     * @param firstTopic
+     * @param batchMessageListener
+     * @throws IOException
+     */
+    public void subscribeTopic(String firstTopic, BatchMessageListener batchMessageListener) throws IOException {
+        if (firstTopic == null || batchMessageListener == null) {
+            return;
+        }
+        synchronized (subscribeLock) {
+            subscribeBatchMap.put(firstTopic, batchMessageListener);
+            if (consumersPaused) {
+                // started with the others once the flow controller resumes
+                return;
+            }
+            for (ConsumeChannel consumeChannel : consumeChannels) {
+                _subscribeTopic(consumeChannel, firstTopic, batchMessageListener);
+            }
+        }
+    }
+
+    private void _subscribeTopic(ConsumeChannel consumeChannel, String firstTopic, BatchMessageListener batchMessageListener)
+            throws IOException {
+        Channel channel = consumeChannel.getChannel();
+        synchronized (channel) {
+            setSubscriptionPrefetch(channel, firstTopic);
+            consumeChannel.addConsumer(firstTopic, consumeTopic(consumeChannel, channel, firstTopic, batchMessageListener));
+        }
+    }
+
+    private String consumeTopic(ConsumeChannel consumeChannel, Channel channel, String firstTopic,
+                                BatchMessageListener batchMessageListener) throws IOException {
+        final AckTracker ackTracker = consumeChannel.getAckTracker();
+        final DeliveryBatcher deliveryBatcher = new DeliveryBatcher(consumerConfig.getBatchMaxMessages(),
+                consumerConfig.getBatchWindowMills(), scheduler, new Consumer<List<Delivery>>() {
+            @Override
+            public void accept(List<Delivery> deliveries) {
+                try {
+                    listenerExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            processBatch(consumeChannel, ackTracker, batchMessageListener, deliveries);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    for (Delivery delivery : deliveries) {
+                        requeue(consumeChannel, ackTracker, delivery.getEnvelope().getDeliveryTag(), delivery.getBody().length);
+                    }
+                }
+            }
+        });
+        return channel.basicConsume(firstTopic, false, new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope,
+                                       AMQP.BasicProperties properties, byte[] body) {
+                consumeChannel.onDelivery(body.length);
+                deliveryBatcher.add(new Delivery(envelope, properties, body));
+            }
+        });
+    }
+
+    private void processBatch(ConsumeChannel consumeChannel, AckTracker ackTracker,
+                              BatchMessageListener batchMessageListener, List<Delivery> deliveries) {
+        List<ReceivedMessage> messages = new ArrayList<>(deliveries.size());
+        long[] deliveryTags = new long[deliveries.size()];
+        int count = 0;
+        long bytes = 0;
+        for (Delivery delivery : deliveries) {
+            bytes += delivery.getBody().length;
+        }
+        try {
+            for (Delivery delivery : deliveries) {
+                AMQP.BasicProperties properties = delivery.getProperties();
+                try {
+                    messages.add(new ReceivedMessage(properties.getMessageId(), new MessageProperties(properties),
+                            decode(properties, delivery.getBody())));
+                    deliveryTags[count++] = delivery.getEnvelope().getDeliveryTag();
+                } catch (Throwable t) {
+                    // a message that can not be decoded does not take the rest of the batch with it
+                    try {
+                        ackTracker.nack(delivery.getEnvelope().getDeliveryTag(), false);
+                    } catch (IOException | RuntimeException e) {
+                    }
+                }
+            }
+            long begin = System.nanoTime();
+            try {
+                if (count > 0) {
+                    batchMessageListener.process(messages);
+                }
+                if (adaptivePrefetch != null) {
+                    adaptivePrefetch.record(System.nanoTime() - begin, count);
+                }
+                ackTracker.ack(deliveryTags, count);
+            } catch (Throwable t) {
+                ackTracker.nack(deliveryTags, count, false);
+            }
+        } catch (IOException | RuntimeException e) {
+        } finally {
+            consumeChannel.onSettled(deliveries.size(), bytes);
+        }
+    }
+
+    private byte[] decode(AMQP.BasicProperties properties, byte[] body) throws DataFormatException {
+        Map<String, Object> headers = properties.getHeaders();
+        Object compression = headers == null ? null : headers.get(MessageProperties.SDK_COMPRESSION);
+        if (compression == null) {
+            return body;
+        }
+        if (!DeflateCodec.NAME.equals(compression.toString())) {
+            throw new DataFormatException("unsupported payload compression " + compression);
+        }
+        return deflateCodec.decompress(body);
+    }
+
     public void subscribeStatus(String mqttGroupId, StatusListener statusListener) throws IOException {
         if (mqttGroupId == null || statusListener == null) {
             return;
         }
-        subscribeStatusMap.put(mqttGroupId, statusListener);
-        for (int i = 0; i < CONNECTION_NUM; i++) {
-            Channel channel = channels[i];
-            _subscribeStatus(channel, mqttGroupId, statusListener);
+        synchronized (subscribeLock) {
+            subscribeStatusMap.put(mqttGroupId, statusListener);
+            if (consumersPaused) {
+                // started with the others once the flow controller resumes
+                return;
+            }
+            for (ConsumeChannel consumeChannel : consumeChannels) {
+                _subscribeStatus(consumeChannel, mqttGroupId, statusListener);
+            }
         }
     }
 
+    /**
+     * consume status notices on a channel opened by the caller, it is not resubscribed when the channel is recreated
+     *
+     * @deprecated use {@link #subscribeStatus(String, StatusListener)}, which consumes on every channel of this consumer
+     */
+    @Deprecated
     public void _subscribeStatus(Channel channel, String mqttGroupId, StatusListener statusListener) throws IOException {
+        _subscribeStatus(wrap(channel), mqttGroupId, statusListener);
+    }
+
+    private void _subscribeStatus(ConsumeChannel consumeChannel, String mqttGroupId, StatusListener statusListener)
+            throws IOException {
         Map<String, Object> arguments = new HashMap<>(4);
+        String subscription = STATUS_SUBSCRIPTION_PREFIX + mqttGroupId;
         if (getChannelConfig().isCustomAuth() && mqttGroupId == null) {
             mqttGroupId = StringUtils.EMPTY;
         }
         arguments.put("GROUP_ID", mqttGroupId);
-        channel.basicConsume("STATUS", false, arguments, new DefaultConsumer(channel) {
+        Channel channel = consumeChannel.getChannel();
+        synchronized (channel) {
+            setSubscriptionPrefetch(channel, null);
+            consumeChannel.addConsumer(subscription, consumeStatus(consumeChannel, channel, arguments, statusListener));
+        }
+    }
+
+    private String consumeStatus(ConsumeChannel consumeChannel, Channel channel, Map<String, Object> arguments,
+                                 StatusListener statusListener) throws IOException {
+        final AckTracker ackTracker = consumeChannel.getAckTracker();
+        return channel.basicConsume("STATUS", false, arguments, new DefaultConsumer(channel) {
             @Override
             public void handleDelivery(String consumerTag, Envelope envelope,
                                        AMQP.BasicProperties properties, byte[] body)
                     throws IOException {
-                statusExecutor.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            statusListener.process(new StatusNotice(body));
-                            channel.basicAck(envelope.getDeliveryTag(), false);
-                        } catch (Throwable t) {
+                consumeChannel.onDelivery(body.length);
+                try {
+                    statusExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
                             try {
-                                channel.basicNack(envelope.getDeliveryTag(), false, false);
-                            } catch (IOException e) {
+                                statusListener.process(new StatusNotice(body));
+                                ackTracker.ack(envelope.getDeliveryTag());
+                            } catch (Throwable t) {
+                                try {
+                                    ackTracker.nack(envelope.getDeliveryTag(), false);
+                                } catch (IOException | RuntimeException e) {
+                                }
+                            } finally {
+                                consumeChannel.onSettled(1, body.length);
                             }
                         }
-                    }
-                });
+                    });
+                } catch (RejectedExecutionException e) {
+                    requeue(consumeChannel, ackTracker, envelope.getDeliveryTag(), body.length);
+                }
             }
         });
     }
@@ -17,39 +17,67 @@
 
 package com.alibaba.mqtt.server;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
 import com.alibaba.mqtt.server.callback.SendCallback;
+import com.alibaba.mqtt.server.common.BatchSendResult;
 import com.alibaba.mqtt.server.common.SendResult;
 import com.alibaba.mqtt.server.config.ChannelConfig;
+import com.alibaba.mqtt.server.config.ChannelSelectStrategy;
 import com.alibaba.mqtt.server.config.ProducerConfig;
-import com.alibaba.mqtt.server.model.MessageProperties;
+import com.alibaba.mqtt.server.config.RateLimitPolicy;
+import com.alibaba.mqtt.server.model.Message;
+import com.alibaba.mqtt.server.model.PropertiesTemplate;
 import com.alibaba.mqtt.server.model.StringPair;
 import com.alibaba.mqtt.server.network.AbstractChannel;
+import com.alibaba.mqtt.server.network.BatchSendCallbackWrapper;
+import com.alibaba.mqtt.server.network.MessageAccumulator;
+import com.alibaba.mqtt.server.network.MessageConflater;
+import com.alibaba.mqtt.server.network.MessageSpool;
+import com.alibaba.mqtt.server.network.PublishChannel;
+import com.alibaba.mqtt.server.network.SendCallbackWrapper;
+import com.alibaba.mqtt.server.util.DeflateCodec;
+import com.alibaba.mqtt.server.util.InFlightLimiter;
+import com.alibaba.mqtt.server.util.PayloadUtils;
 import com.alibaba.mqtt.server.util.ThreadFactoryImpl;
-import com.rabbitmq.client.AMQP;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.ConfirmListener;
+import com.alibaba.mqtt.server.util.TimingWheel;
+import com.alibaba.mqtt.server.util.TopicRateLimiter;
 import com.rabbitmq.client.Connection;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class ServerProducer extends AbstractChannel {
-    private Map<Long, SendCallbackWrapper> sendCallbackMap = new ConcurrentHashMap<>(32);
+    private static final PropertiesTemplate EMPTY_TEMPLATE = new PropertiesTemplate(null, null, null, null);
     private ProducerConfig producerConfig;
-    private Connection connection;
-    private Channel channel;
-    private static ScheduledThreadPoolExecutor scheduler =
-            new ScheduledThreadPoolExecutor(1, new ThreadFactoryImpl("scan_server_producer_callback_"));
+    private Connection[] connections;
+    private PublishChannel[] publishChannels;
+    private TimingWheel timingWheel;
+    private MessageAccumulator[] accumulators;
+    private InFlightLimiter inFlightLimiter;
+    private DeflateCodec deflateCodec;
+    private MessageSpool messageSpool;
+    private TopicRateLimiter topicRateLimiter;
+    private MessageConflater messageConflater;
+    private ScheduledThreadPoolExecutor scheduler;
+    private Executor callbackExecutor;
+    private ExecutorService ownedCallbackExecutor;
 
 
     public ServerProducer(ChannelConfig channelConfig, ProducerConfig producerConfig) {
@@ -62,55 +90,132 @@ public class ServerProducer extends AbstractChannel {
             return;
         }
         super.start();
-        this.connection = factory.newConnection();
-        this.channel = connection.createChannel();
-        confirmChannel(channel);
+        int connectionNum = Math.max(1, producerConfig.getConnectionNum());
+        int channelNum = Math.max(1, producerConfig.getChannelNumPerConnection());
+        this.connections = new Connection[connectionNum];
+        this.publishChannels = new PublishChannel[connectionNum * channelNum];
+        if (producerConfig.getMaxInFlightMessages() > 0 || producerConfig.getMaxInFlightBytes() > 0) {
+            this.inFlightLimiter =
+                    new InFlightLimiter(producerConfig.getMaxInFlightMessages(), producerConfig.getMaxInFlightBytes());
+        }
+        if (producerConfig.getTopicRateLimit() > 0
+                || (producerConfig.getTopicRateLimits() != null && !producerConfig.getTopicRateLimits().isEmpty())) {
+            this.topicRateLimiter = new TopicRateLimiter(producerConfig.getTopicRateLimit(),
+                    producerConfig.getTopicRateLimits(), producerConfig.getTopicRateBurstSeconds());
+        }
+        if (producerConfig.getCompressThreshold() > 0) {
+            this.deflateCodec = new DeflateCodec(producerConfig.getCompressLevel());
+        }
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryImpl("scan_server_producer_callback_", true));
+        this.callbackExecutor = producerConfig.getCallbackExecutor();
+        if (callbackExecutor == null) {
+            this.ownedCallbackExecutor = new ThreadPoolExecutor(
+                    Math.max(1, producerConfig.getCallbackThreadNum()), Math.max(1, producerConfig.getCallbackThreadNum()),
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryImpl("server_producer_callback_", true));
+            this.callbackExecutor = ownedCallbackExecutor;
+        }
+        this.timingWheel = new TimingWheel(producerConfig.getTimeoutTickMills(), producerConfig.getTimeoutWheelSize());
+        for (int i = 0; i < connectionNum; i++) {
+            connections[i] = factory.newConnection();
+            for (int j = 0; j < channelNum; j++) {
+                publishChannels[i * channelNum + j] = new PublishChannel(connections[i], timingWheel,
+                        producerConfig.getSendTimeoutMills(), callbackExecutor);
+            }
+        }
+        if (producerConfig.getLingerMills() > 0) {
+            this.accumulators = new MessageAccumulator[publishChannels.length];
+            for (int i = 0; i < publishChannels.length; i++) {
+                final PublishChannel publishChannel = publishChannels[i];
+                accumulators[i] = new MessageAccumulator("server_producer_publisher_" + i + "_",
+                        producerConfig.getLingerMills(), producerConfig.getBatchMaxMessages(), producerConfig.getBatchMaxBytes(),
+                        new Consumer<List<MessageAccumulator.Entry>>() {
+                            @Override
+                            public void accept(List<MessageAccumulator.Entry> entries) {
+                                publishEntries(publishChannel, entries);
+                            }
+                        });
+            }
+        }
+        if (producerConfig.getConflationFlushMills() > 0) {
+            this.messageConflater = new MessageConflater("server_producer_conflater_", producerConfig.getConflationFlushMills(),
+                    new Consumer<MessageConflater.Entry>() {
+                        @Override
+                        public void accept(MessageConflater.Entry entry) {
+                            publishConflated(entry);
+                        }
+                    });
+        }
+        if (producerConfig.getSpoolDir() != null) {
+            this.messageSpool = new MessageSpool(new File(producerConfig.getSpoolDir()), producerConfig.getSpoolSegmentSize(),
+                    producerConfig.getSpoolMaxSegments(), producerConfig.getSpoolDrainWindow(),
+                    producerConfig.getSpoolRetryIntervalMills(), producerConfig.getSpoolMaxAttempts(),
+                    callbackExecutor, new MessageSpool.Publisher() {
+                @Override
+                public boolean publish(String msgId, Message message, boolean deflated, SendCallback sendCallback)
+                        throws IOException {
+                    return publishSpooled(msgId, message, deflated, sendCallback);
+                }
+            });
+        }
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                timingWheel.advance();
+            }
+        }, timingWheel.getTickMills(), timingWheel.getTickMills(), TimeUnit.MILLISECONDS);
         scheduler.scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
-                for (Map.Entry<Long, SendCallbackWrapper> entry : sendCallbackMap.entrySet()) {
-                    SendCallbackWrapper sendCallbackWrapper = entry.getValue();
-                    if (System.currentTimeMillis() - sendCallbackWrapper.timestamp >
-                            producerConfig.getSendTimeoutMills() + 1000L) {
-                        sendCallbackWrapper.sendCallback.onFail();
-                        sendCallbackMap.remove(entry.getKey());
+                for (PublishChannel publishChannel : publishChannels) {
+                    try {
+                        publishChannel.ensureOpen();
+                    } catch (Exception e) {
                     }
                 }
-                try {
-                    if (!channel.isOpen()) {
-                        Channel newChannel = connection.createChannel();
-                        confirmChannel(newChannel);
-                        channel = newChannel;
-                    }
-                } catch (Exception e) {
-                }
             }
         }, 1, 1, TimeUnit.SECONDS);
     }
 
     public void stop() throws IOException {
-        connection.close();
+        if (messageConflater != null) {
+            messageConflater.shutdown(producerConfig.getSendTimeoutMills());
+        }
+        if (messageSpool != null) {
+            messageSpool.shutdown(producerConfig.getSendTimeoutMills());
+        }
+        if (accumulators != null) {
+            for (MessageAccumulator accumulator : accumulators) {
+                accumulator.shutdown(producerConfig.getSendTimeoutMills());
+            }
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        scheduler.shutdown();
+        for (PublishChannel publishChannel : publishChannels) {
+            publishChannel.failPending();
+        }
+        if (ownedCallbackExecutor != null) {
+            ownedCallbackExecutor.shutdown();
+        }
     }
 
-    private void confirmChannel(Channel channel) throws IOException {
-        channel.confirmSelect();
-        channel.addConfirmListener(new ConfirmListener() {
-            @Override
-            public void handleAck(long deliveryTag, boolean multiple) throws IOException {
-                SendCallbackWrapper sendCallbackWrapper = sendCallbackMap.remove(deliveryTag);
-                if (sendCallbackWrapper != null && sendCallbackWrapper.sendCallback != null) {
-                    sendCallbackWrapper.sendCallback.onSuccess(sendCallbackWrapper.msgId);
-                }
-            }
+    private PublishChannel selectChannel(String mqttTopic) {
+        return publishChannels[selectChannelIndex(mqttTopic)];
+    }
 
-            @Override
-            public void handleNack(long deliveryTag, boolean multiple) throws IOException {
-                SendCallbackWrapper sendCallbackWrapper = sendCallbackMap.remove(deliveryTag);
-                if (sendCallbackWrapper != null && sendCallbackWrapper.sendCallback != null) {
-                    sendCallbackWrapper.sendCallback.onFail();
-                }
-            }
-        });
+    private int selectChannelIndex(String mqttTopic) {
+        if (publishChannels.length == 1) {
+            return 0;
+        }
+        int hash;
+        if (producerConfig.getChannelSelectStrategy() == ChannelSelectStrategy.TOPIC_HASH) {
+            hash = mqttTopic.hashCode();
+        } else {
+            hash = (int) Thread.currentThread().getId();
+        }
+        return (hash & Integer.MAX_VALUE) % publishChannels.length;
     }
 
     public void sendMessage(String mqttTopic, byte[] payload, SendCallback sendCallback) throws IOException {
@@ -132,15 +237,119 @@ public class ServerProducer extends AbstractChannel {
                              String mqtt5MsgExpireInterval,
                              String mqtt5ContentType,
                              List<StringPair> mqtt5UserProperty) throws IOException {
-        String msgId = UUID.randomUUID().toString().replaceAll("-", "").toUpperCase();
-        synchronized (channel) {
-            long publishSeqNo = channel.getNextPublishSeqNo();
-            AMQP.BasicProperties props = buildAMQPProps(msgId, publishSeqNo, mqtt5MsgExpireInterval, mqtt5ContentType, mqtt5UserProperty);
-            if (sendCallback != null) {
-                sendCallbackMap.put(publishSeqNo, new SendCallbackWrapper(sendCallback, msgId));
-            }
-            channel.basicPublish(mqttTopic, mqttTopic, true, props, payload);
-        }
+        publish(mqttTopic, payload, sendCallback, toTemplate(mqtt5MsgExpireInterval, mqtt5ContentType, mqtt5UserProperty));
+    }
+
+    /**
+     * @param mqttTopic
+     * @param payload
+     * @param sendCallback
+     * @param propertiesTemplate created by {@link #createPropertiesTemplate}
+     * @throws IOException
+     */
+    public void sendMessage(String mqttTopic,
+                            byte[] payload,
+                            SendCallback sendCallback,
+                            PropertiesTemplate propertiesTemplate) throws IOException {
+        publish(mqttTopic, payload, sendCallback, propertiesTemplate);
+    }
+
+    public CompletableFuture<SendResult> sendAsync(String mqttTopic, byte[] payload) throws IOException {
+        return sendAsync(mqttTopic, payload, null, null, null);
+    }
+
+    /**
+     * The returned future is completed on ProducerConfig.callbackExecutor once the broker confirms the message,
+     * with a failed SendResult on nack or timeout. It is completed right away on the calling thread if the send
+     * is rejected before being published.
+     *
+     * @param mqttTopic
+     * @param payload
+     * @param mqtt5MsgExpireInterval unit: second
+     * @param mqtt5ContentType
+     * @param mqtt5UserProperty
+     * @return
+     * @throws IOException
+     */
+    public CompletableFuture<SendResult> sendAsync(String mqttTopic,
+                                                   byte[] payload,
+                                                   String mqtt5MsgExpireInterval,
+                                                   String mqtt5ContentType,
+                                                   List<StringPair> mqtt5UserProperty) throws IOException {
+        return sendAsync(mqttTopic, payload, toTemplate(mqtt5MsgExpireInterval, mqtt5ContentType, mqtt5UserProperty));
+    }
+
+    public CompletableFuture<SendResult> sendAsync(String mqttTopic,
+                                                   byte[] payload,
+                                                   PropertiesTemplate propertiesTemplate) throws IOException {
+        SendFuture sendFuture = new SendFuture();
+        publish(mqttTopic, payload, sendFuture, propertiesTemplate);
+        return sendFuture;
+    }
+
+    /**
+     * Send length bytes of payload starting at offset. The slice is copied once into an exact-size array,
+     * unless it covers the whole array: that array is then kept by the producer, for the linger accumulator,
+     * for replay after a channel recovery and for conflation, so do not change it until the callback is called.
+     * A payload that gets compressed or spooled is copied, and the array is not kept then.
+     *
+     * @param mqttTopic
+     * @param payload
+     * @param offset
+     * @param length
+     * @param sendCallback
+     * @param propertiesTemplate may be null
+     * @throws IOException
+     */
+    public void sendMessage(String mqttTopic,
+                            byte[] payload,
+                            int offset,
+                            int length,
+                            SendCallback sendCallback,
+                            PropertiesTemplate propertiesTemplate) throws IOException {
+        publish(mqttTopic, PayloadUtils.toArray(payload, offset, length), sendCallback, propertiesTemplate);
+    }
+
+    /**
+     * Send the remaining bytes of payload without moving its position. A direct buffer, or a heap buffer that
+     * does not span its whole backing array, is copied once into an exact-size array. A heap buffer spanning
+     * its whole array is not copied, and that array is kept like the one of
+     * {@link #sendMessage(String, byte[], int, int, SendCallback, PropertiesTemplate)}: do not change it
+     * until the callback is called.
+     *
+     * @param mqttTopic
+     * @param payload
+     * @param sendCallback
+     * @param propertiesTemplate may be null
+     * @throws IOException
+     */
+    public void sendMessage(String mqttTopic,
+                            ByteBuffer payload,
+                            SendCallback sendCallback,
+                            PropertiesTemplate propertiesTemplate) throws IOException {
+        publish(mqttTopic, PayloadUtils.toArray(payload), sendCallback, propertiesTemplate);
+    }
+
+    /**
+     * Like {@link #sendMessage(String, byte[], int, int, SendCallback, PropertiesTemplate)}: a whole array is
+     * kept without a copy, do not change it until the returned future is completed.
+     */
+    public CompletableFuture<SendResult> sendAsync(String mqttTopic,
+                                                   byte[] payload,
+                                                   int offset,
+                                                   int length,
+                                                   PropertiesTemplate propertiesTemplate) throws IOException {
+        return sendAsync(mqttTopic, PayloadUtils.toArray(payload, offset, length), propertiesTemplate);
+    }
+
+    /**
+     * Like {@link #sendMessage(String, ByteBuffer, SendCallback, PropertiesTemplate)}: a heap buffer spanning its
+     * whole array is kept without a copy, do not change that array until the returned future is completed.
+     */
+    public CompletableFuture<SendResult> sendAsync(String mqttTopic,
+                                                   ByteBuffer payload,
+                                                   PropertiesTemplate propertiesTemplate) throws IOException {
+        return sendAsync(mqttTopic, PayloadUtils.toArray(payload), propertiesTemplate);
     }
 
     public SendResult sendMessage(String mqttTopic, byte[] payload) throws IOException {
@@ -161,73 +370,481 @@ public class ServerProducer extends AbstractChannel {
                                    String mqtt5MsgExpireInterval,
                                    String mqtt5ContentType,
                                    List<StringPair> mqtt5UserProperty) throws IOException {
-        String msgId = UUID.randomUUID().toString().replaceAll("-", "").toUpperCase();
-        CountDownLatch countDownLatch = new CountDownLatch(1);
-        SendResult sendResult = new SendResult(false);
-        SyncSendCallBack syncSendCallBack = new SyncSendCallBack(sendResult, countDownLatch);
-        synchronized (channel) {
-            long publishSeqNo = channel.getNextPublishSeqNo();
-            AMQP.BasicProperties props = buildAMQPProps(msgId, publishSeqNo, mqtt5MsgExpireInterval, mqtt5ContentType, mqtt5UserProperty);
-            sendCallbackMap.put(publishSeqNo, new SendCallbackWrapper(syncSendCallBack, msgId));
-            channel.basicPublish(mqttTopic, mqttTopic, true, props, payload);
+        return sendMessage(mqttTopic, payload, toTemplate(mqtt5MsgExpireInterval, mqtt5ContentType, mqtt5UserProperty));
+    }
+
+    public SendResult sendMessage(String mqttTopic,
+                                  byte[] payload,
+                                  PropertiesTemplate propertiesTemplate) throws IOException {
+        CompletableFuture<SendResult> sendFuture = sendAsync(mqttTopic, payload, propertiesTemplate);
+        try {
+            return sendFuture.get(producerConfig.getSendTimeoutMills() + 1000L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new SendResult(false);
+        } catch (ExecutionException | TimeoutException e) {
+            return new SendResult(false);
+        }
+    }
+
+    /**
+     * Publish the whole batch back to back on one channel, tracked as a single pending entry.
+     *
+     * @param messages
+     * @return
+     * @throws IOException
+     */
+    public CompletableFuture<BatchSendResult> sendBatchAsync(List<Message> messages) throws IOException {
+        CompletableFuture<BatchSendResult> future = new CompletableFuture<>();
+        if (messages == null || messages.isEmpty()) {
+            future.complete(new BatchSendResult(Collections.<String>emptyList(), Collections.<Message>emptyList()));
+            return future;
+        }
+        for (Message message : messages) {
+            acquireRate(message.getMqttTopic());
+        }
+        String[] msgIds = new String[messages.size()];
+        byte[][] payloads = new byte[messages.size()][];
+        PropertiesTemplate[] propertiesTemplates = new PropertiesTemplate[messages.size()];
+        long bytes = 0;
+        for (int i = 0; i < msgIds.length; i++) {
+            Message message = messages.get(i);
+            msgIds[i] = producerConfig.getMessageIdGenerator().nextId();
+            payloads[i] = message.getPayload();
+            propertiesTemplates[i] = templateOf(message);
+            if (shouldCompress(payloads[i])) {
+                byte[] compressed = deflateCodec.compress(payloads[i]);
+                if (compressed.length < payloads[i].length) {
+                    payloads[i] = compressed;
+                    propertiesTemplates[i] = propertiesTemplates[i].deflated();
+                }
+            }
+            bytes += payloadSize(payloads[i]);
+        }
+        publishBatch(messages, msgIds, payloads, propertiesTemplates, bytes, future);
+        return future;
+    }
+
+    public BatchSendResult sendBatch(List<Message> messages) throws IOException {
+        return getBatchResult(sendBatchAsync(messages), messages);
+    }
+
+    /**
+     * Publish one payload to many topics, e.g. a command to a large number of P2P topics.
+     * The payload is compressed once and the properties are shared, message ids are still unique per topic.
+     * Topics are published in batches of ProducerConfig.batchMaxMessages under one channel lock each,
+     * a batch that can not be published is reported as failed instead of failing the whole call.
+     *
+     * @param mqttTopics
+     * @param payload
+     * @param propertiesTemplate null for no MQTT5 properties
+     * @return msgIds in the order of mqttTopics, failed messages carry the uncompressed payload
+     */
+    public CompletableFuture<BatchSendResult> sendToTopicsAsync(Collection<String> mqttTopics,
+                                                                byte[] payload,
+                                                                PropertiesTemplate propertiesTemplate) {
+        final List<TopicChunk> chunks = publishToTopics(mqttTopics, payload, propertiesTemplate);
+        return allOf(chunks).thenApply(new Function<Void, BatchSendResult>() {
+            @Override
+            public BatchSendResult apply(Void v) {
+                return merge(chunks);
+            }
+        });
+    }
+
+    /**
+     * like {@link #sendToTopicsAsync(Collection, byte[], PropertiesTemplate)}, waiting up to sendTimeoutMills.
+     * Batches not confirmed by then are reported as failed, the others with their result.
+     */
+    public BatchSendResult sendToTopics(Collection<String> mqttTopics, byte[] payload, PropertiesTemplate propertiesTemplate) {
+        List<TopicChunk> chunks = publishToTopics(mqttTopics, payload, propertiesTemplate);
+        try {
+            allOf(chunks).get(producerConfig.getSendTimeoutMills() + 1000L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+        }
+        return merge(chunks);
+    }
+
+    private List<TopicChunk> publishToTopics(Collection<String> mqttTopics,
+                                             byte[] payload,
+                                             PropertiesTemplate propertiesTemplate) {
+        if (mqttTopics == null || mqttTopics.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (propertiesTemplate == null) {
+            propertiesTemplate = EMPTY_TEMPLATE;
+        }
+        byte[] published = payload;
+        PropertiesTemplate publishedTemplate = propertiesTemplate;
+        if (shouldCompress(payload)) {
+            byte[] compressed = deflateCodec.compress(payload);
+            if (compressed.length < payload.length) {
+                published = compressed;
+                publishedTemplate = propertiesTemplate.deflated();
+            }
+        }
+        int chunkSize = Math.max(1, producerConfig.getBatchMaxMessages());
+        List<TopicChunk> chunks = new ArrayList<>((mqttTopics.size() + chunkSize - 1) / chunkSize);
+        Iterator<String> iterator = mqttTopics.iterator();
+        while (iterator.hasNext()) {
+            List<Message> messages = new ArrayList<>(Math.min(chunkSize, mqttTopics.size()));
+            while (iterator.hasNext() && messages.size() < chunkSize) {
+                Message message = new Message(iterator.next(), payload);
+                message.setPropertiesTemplate(propertiesTemplate);
+                messages.add(message);
+            }
+            String[] msgIds = new String[messages.size()];
+            byte[][] payloads = new byte[messages.size()][];
+            PropertiesTemplate[] propertiesTemplates = new PropertiesTemplate[messages.size()];
+            for (int i = 0; i < msgIds.length; i++) {
+                msgIds[i] = producerConfig.getMessageIdGenerator().nextId();
+            }
+            Arrays.fill(payloads, published);
+            Arrays.fill(propertiesTemplates, publishedTemplate);
+            TopicChunk chunk = new TopicChunk(messages, msgIds);
+            try {
+                for (Message message : messages) {
+                    acquireRate(message.getMqttTopic());
+                }
+                long bytes = payloadSize(published) * msgIds.length;
+                publishBatch(messages, msgIds, payloads, propertiesTemplates, bytes, chunk.future);
+            } catch (IOException | RuntimeException e) {
+                // a closed channel throws AlreadyClosedException, the chunks published so far are kept
+                chunk.future.complete(chunk.failed());
+            }
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static CompletableFuture<Void> allOf(List<TopicChunk> chunks) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[chunks.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = chunks.get(i).future;
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * @return msgIds in topic order, with every message of a chunk not completed yet counted as failed
+     */
+    private static BatchSendResult merge(List<TopicChunk> chunks) {
+        List<String> msgIds = new ArrayList<>();
+        List<Message> failedMessages = new ArrayList<>();
+        for (TopicChunk chunk : chunks) {
+            BatchSendResult result = chunk.future.getNow(null);
+            if (result == null) {
+                result = chunk.failed();
+            }
+            msgIds.addAll(result.getMsgIds());
+            failedMessages.addAll(result.getFailedMessages());
+        }
+        return new BatchSendResult(msgIds, failedMessages);
+    }
+
+    /**
+     * one batch of a send to many topics
+     */
+    private static class TopicChunk {
+        private final List<Message> messages;
+        private final String[] msgIds;
+        private final CompletableFuture<BatchSendResult> future = new CompletableFuture<>();
+
+        TopicChunk(List<Message> messages, String[] msgIds) {
+            this.messages = messages;
+            this.msgIds = msgIds;
+        }
+
+        BatchSendResult failed() {
+            return new BatchSendResult(Arrays.asList(msgIds), messages);
+        }
+    }
+
+    private void publishBatch(List<Message> messages,
+                              String[] msgIds,
+                              byte[][] payloads,
+                              PropertiesTemplate[] propertiesTemplates,
+                              long bytes,
+                              CompletableFuture<BatchSendResult> future) throws IOException {
+        BatchSendCallbackWrapper batchSendCallbackWrapper =
+                new BatchSendCallbackWrapper(messages, msgIds, payloads, propertiesTemplates, future);
+        if (!acquireInFlight(messages.size(), bytes)) {
+            batchSendCallbackWrapper.fail();
+            return;
         }
+        if (inFlightLimiter != null) {
+            batchSendCallbackWrapper.setInFlight(inFlightLimiter, bytes);
+        }
+        PublishChannel publishChannel = selectChannel(messages.get(0).getMqttTopic());
+        synchronized (publishChannel) {
+            long publishSeqNo = publishChannel.register(batchSendCallbackWrapper);
+            for (int i = 0; i < msgIds.length; i++) {
+                publishChannel.basicPublish(msgIds[i], publishSeqNo + i, messages.get(i).getMqttTopic(),
+                        propertiesTemplates[i], payloads[i]);
+            }
+        }
+    }
+
+    private BatchSendResult getBatchResult(CompletableFuture<BatchSendResult> future, List<Message> messages) {
         try {
-            countDownLatch.await(producerConfig.getSendTimeoutMills() + 1000L, TimeUnit.MILLISECONDS);
+            return future.get(producerConfig.getSendTimeoutMills() + 1000L, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
-            return sendResult;
+            Thread.currentThread().interrupt();
+            return new BatchSendResult(Collections.<String>emptyList(), messages);
+        } catch (ExecutionException | TimeoutException e) {
+            return new BatchSendResult(Collections.<String>emptyList(), messages);
         }
-        return sendResult;
     }
 
-    private AMQP.BasicProperties buildAMQPProps(String msgId,
-                                                long publishSeqNo,
-                                                String mqtt5MsgExpireInterval,
-                                                String mqtt5ContentType,
-                                                List<StringPair> mqtt5UserProperty) {
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("seqId", publishSeqNo);
-        if (mqtt5UserProperty != null && !mqtt5UserProperty.isEmpty()) {
-            headers.put(MessageProperties.MQTT5_USER_PROPERTIES, JSON.toJSONString(mqtt5UserProperty));
+    /**
+     * Send only the latest value of a topic, for state where older values are worthless once a newer one exists.
+     * The message replaces any message of the same topic not published yet, whose callback then gets onFail,
+     * and the current value of every topic is published each ProducerConfig.conflationFlushMills.
+     *
+     * @param mqttTopic
+     * @param payload
+     * @param sendCallback
+     * @param propertiesTemplate null for no MQTT5 properties
+     * @throws IOException if conflation is not enabled
+     */
+    public void sendLatest(String mqttTopic,
+                           byte[] payload,
+                           SendCallback sendCallback,
+                           PropertiesTemplate propertiesTemplate) throws IOException {
+        if (messageConflater == null) {
+            throw new IOException("conflation is disabled, set ProducerConfig.conflationFlushMills");
         }
-        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
-                .headers(headers)
-                .messageId(msgId)
-                .contentType(mqtt5ContentType)
-                .expiration(mqtt5MsgExpireInterval)
-                .build();
-        return props;
+        Message message = new Message(mqttTopic, payload);
+        message.setPropertiesTemplate(propertiesTemplate);
+        messageConflater.offer(mqttTopic, message, sendCallback);
     }
 
-    private class SendCallbackWrapper {
-        private SendCallback sendCallback;
-        private String msgId;
-        private long timestamp = System.currentTimeMillis();
+    public void sendLatest(String mqttTopic, byte[] payload, SendCallback sendCallback) throws IOException {
+        sendLatest(mqttTopic, payload, sendCallback, null);
+    }
+
+    /**
+     * Encode the properties shared by many sends once, see {@link PropertiesTemplate}.
+     *
+     * @param mqtt5MsgExpireInterval unit: second
+     * @param mqtt5ContentType
+     * @param mqtt5UserProperty
+     * @return
+     */
+    public PropertiesTemplate createPropertiesTemplate(String mqtt5MsgExpireInterval,
+                                                       String mqtt5ContentType,
+                                                       List<StringPair> mqtt5UserProperty) {
+        return new PropertiesTemplate(mqtt5MsgExpireInterval, mqtt5ContentType, mqtt5UserProperty,
+                producerConfig.getUserPropertyEncoding());
+    }
 
-        public SendCallbackWrapper(SendCallback sendCallback, String msgId) {
-            this.sendCallback = sendCallback;
-            this.msgId = msgId;
+    private PropertiesTemplate toTemplate(String mqtt5MsgExpireInterval,
+                                          String mqtt5ContentType,
+                                          List<StringPair> mqtt5UserProperty) {
+        if (mqtt5MsgExpireInterval == null && mqtt5ContentType == null && mqtt5UserProperty == null) {
+            return EMPTY_TEMPLATE;
         }
+        return createPropertiesTemplate(mqtt5MsgExpireInterval, mqtt5ContentType, mqtt5UserProperty);
     }
 
-    private class SyncSendCallBack implements SendCallback {
-        private SendResult sendResult;
-        private CountDownLatch countDownLatch;
+    private PropertiesTemplate templateOf(Message message) {
+        if (message.getPropertiesTemplate() != null) {
+            return message.getPropertiesTemplate();
+        }
+        return toTemplate(message.getMqtt5MsgExpireInterval(), message.getMqtt5ContentType(), message.getMqtt5UserProperty());
+    }
 
-        public SyncSendCallBack(SendResult sendResult, CountDownLatch countDownLatch) {
-            this.sendResult = sendResult;
-            this.countDownLatch = countDownLatch;
+    private String publish(String mqttTopic,
+                           byte[] payload,
+                           SendCallback sendCallback,
+                           PropertiesTemplate propertiesTemplate) throws IOException {
+        acquireRate(mqttTopic);
+        if (propertiesTemplate == null) {
+            propertiesTemplate = EMPTY_TEMPLATE;
         }
+        boolean deflated = false;
+        if (shouldCompress(payload)) {
+            byte[] compressed = deflateCodec.compress(payload);
+            if (compressed.length < payload.length) {
+                payload = compressed;
+                propertiesTemplate = propertiesTemplate.deflated();
+                deflated = true;
+            }
+        }
+        String msgId = producerConfig.getMessageIdGenerator().nextId();
+        int channelIndex = selectChannelIndex(mqttTopic);
+        boolean acquired = false;
+        if (messageSpool != null) {
+            // keep the order behind anything already spooled, and spool instead of failing while the broker is away
+            if (messageSpool.isEmpty() && publishChannels[channelIndex].isOpen()
+                    && (inFlightLimiter == null || (acquired = inFlightLimiter.tryAcquire(1, payloadSize(payload))))) {
+                // publish directly
+            } else if (messageSpool.append(msgId, mqttTopic, payload, propertiesTemplate, deflated,
+                    sendCallback)) {
+                return msgId;
+            }
+        }
+        if (!acquired && !acquireInFlight(1, payloadSize(payload))) {
+            if (sendCallback != null) {
+                sendCallback.onFail();
+            }
+            return msgId;
+        }
+        SendCallbackWrapper sendCallbackWrapper = null;
+        if (sendCallback != null || inFlightLimiter != null) {
+            sendCallbackWrapper = new SendCallbackWrapper(sendCallback, msgId);
+            sendCallbackWrapper.setPublication(mqttTopic, payload, propertiesTemplate);
+            if (inFlightLimiter != null) {
+                sendCallbackWrapper.setInFlight(inFlightLimiter, payloadSize(payload));
+            }
+        }
+        if (accumulators != null) {
+            Message message = new Message(mqttTopic, payload);
+            message.setPropertiesTemplate(propertiesTemplate);
+            accumulators[channelIndex].append(message, msgId, sendCallbackWrapper);
+            return msgId;
+        }
+        PublishChannel publishChannel = publishChannels[channelIndex];
+        synchronized (publishChannel) {
+            long publishSeqNo = publishChannel.register(sendCallbackWrapper);
+            publishChannel.basicPublish(msgId, publishSeqNo, mqttTopic, propertiesTemplate, payload);
+        }
+        return msgId;
+    }
+
+    /**
+     * @return false if the spooled message can not be published yet
+     */
+    private boolean publishSpooled(String msgId, Message message, boolean deflated, SendCallback sendCallback)
+            throws IOException {
+        PublishChannel publishChannel = selectChannel(message.getMqttTopic());
+        if (!publishChannel.isOpen()) {
+            return false;
+        }
+        long bytes = payloadSize(message.getPayload());
+        if (inFlightLimiter != null && !inFlightLimiter.tryAcquire(1, bytes)) {
+            return false;
+        }
+        PropertiesTemplate propertiesTemplate = templateOf(message);
+        if (deflated) {
+            propertiesTemplate = propertiesTemplate.deflated();
+        }
+        SendCallbackWrapper sendCallbackWrapper = new SendCallbackWrapper(sendCallback, msgId);
+        sendCallbackWrapper.setPublication(message.getMqttTopic(), message.getPayload(), propertiesTemplate);
+        if (inFlightLimiter != null) {
+            sendCallbackWrapper.setInFlight(inFlightLimiter, bytes);
+        }
+        synchronized (publishChannel) {
+            long publishSeqNo = publishChannel.register(sendCallbackWrapper);
+            // if this throws the registered callback times out and the spool retries from its checkpoint
+            publishChannel.basicPublish(msgId, publishSeqNo, message.getMqttTopic(), propertiesTemplate, message.getPayload());
+        }
+        return true;
+    }
+
+    private void publishConflated(MessageConflater.Entry entry) {
+        Message message = entry.getMessage();
+        try {
+            publish(message.getMqttTopic(), message.getPayload(), entry.getSendCallback() == null ? null : entry,
+                    message.getPropertiesTemplate());
+        } catch (IOException | RuntimeException e) {
+            // a closed channel throws AlreadyClosedException
+            entry.onFail();
+        }
+    }
+
+    /**
+     * publish what the accumulator collected back to back, on the publisher thread of the channel
+     */
+    private void publishEntries(PublishChannel publishChannel, List<MessageAccumulator.Entry> entries) {
+        int registered = 0;
+        try {
+            synchronized (publishChannel) {
+                for (MessageAccumulator.Entry entry : entries) {
+                    Message message = entry.getMessage();
+                    long publishSeqNo = publishChannel.register(entry.getSendCallbackWrapper());
+                    registered++;
+                    publishChannel.basicPublish(entry.getMsgId(), publishSeqNo, message.getMqttTopic(),
+                            templateOf(message), message.getPayload());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // a closed channel throws AlreadyClosedException. The entry that failed is registered and is
+            // replayed or times out, the rest were never registered and fail now
+            for (int i = registered; i < entries.size(); i++) {
+                SendCallbackWrapper sendCallbackWrapper = entries.get(i).getSendCallbackWrapper();
+                if (sendCallbackWrapper != null) {
+                    sendCallbackWrapper.fail();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the message must be dropped under InFlightLimitPolicy.CALLBACK_FAIL
+     */
+    private boolean acquireInFlight(int messages, long bytes) throws IOException {
+        if (inFlightLimiter == null) {
+            return true;
+        }
+        switch (producerConfig.getInFlightLimitPolicy()) {
+            case BLOCK:
+                try {
+                    if (inFlightLimiter.acquire(messages, bytes, producerConfig.getInFlightBlockTimeoutMills())) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("timed out waiting for in-flight capacity, inFlightMessages="
+                        + inFlightLimiter.getInFlightMessages() + ", inFlightBytes=" + inFlightLimiter.getInFlightBytes());
+            case FAIL_FAST:
+                if (inFlightLimiter.tryAcquire(messages, bytes)) {
+                    return true;
+                }
+                throw new IOException("in-flight limit reached, inFlightMessages="
+                        + inFlightLimiter.getInFlightMessages() + ", inFlightBytes=" + inFlightLimiter.getInFlightBytes());
+            default:
+                return inFlightLimiter.tryAcquire(messages, bytes);
+        }
+    }
+
+    private void acquireRate(String mqttTopic) throws IOException {
+        if (topicRateLimiter == null) {
+            return;
+        }
+        boolean wait = producerConfig.getTopicRateLimitPolicy() == RateLimitPolicy.WAIT;
+        try {
+            if (topicRateLimiter.acquire(mqttTopic, 1, wait ? producerConfig.getTopicRateWaitTimeoutMills() : 0)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new IOException("topic rate limit reached, mqttTopic=" + mqttTopic);
+    }
+
+    private boolean shouldCompress(byte[] payload) {
+        return deflateCodec != null && payload != null && payload.length >= producerConfig.getCompressThreshold();
+    }
+
+    private static long payloadSize(byte[] payload) {
+        return payload == null ? 0 : payload.length;
+    }
 
+    private static class SendFuture extends CompletableFuture<SendResult> implements SendCallback {
         @Override
         public void onSuccess(String msgId) {
+            SendResult sendResult = new SendResult(true);
             sendResult.setMsgId(msgId);
-            sendResult.setSuccess(true);
-            countDownLatch.countDown();
+            complete(sendResult);
         }
 
         @Override
         public void onFail() {
-            countDownLatch.countDown();
+            complete(new SendResult(false));
         }
     }
 
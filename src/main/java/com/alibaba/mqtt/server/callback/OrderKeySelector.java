@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.callback;
+
+
+import com.alibaba.mqtt.server.model.MessageProperties;
+
+/**
+ * Chooses the key whose messages are processed in delivery order, see ConsumerConfig.orderKeySelector.
+ */
+public interface OrderKeySelector {
+    OrderKeySelector CLIENT_ID = new OrderKeySelector() {
+        @Override
+        public Object select(MessageProperties messageProperties) {
+            return messageProperties.getClientId();
+        }
+    };
+
+    OrderKeySelector SECOND_TOPIC = new OrderKeySelector() {
+        @Override
+        public Object select(MessageProperties messageProperties) {
+            return messageProperties.getSecondTopic();
+        }
+    };
+
+    /**
+     * @return the ordering key, null if the message needs no ordering
+     */
+    Object select(MessageProperties messageProperties);
+}
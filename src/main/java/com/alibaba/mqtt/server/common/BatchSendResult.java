@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.common;
+
+import com.alibaba.mqtt.server.model.Message;
+
+import java.util.List;
+
+public class BatchSendResult {
+    private final List<String> msgIds;
+    private final List<Message> failedMessages;
+
+    public BatchSendResult(List<String> msgIds, List<Message> failedMessages) {
+        this.msgIds = msgIds;
+        this.failedMessages = failedMessages;
+    }
+
+    /**
+     * @return message ids in the order of the batch
+     */
+    public List<String> getMsgIds() {
+        return msgIds;
+    }
+
+    /**
+     * @return messages that were nacked or timed out, empty if the whole batch was confirmed
+     */
+    public List<Message> getFailedMessages() {
+        return failedMessages;
+    }
+
+    public boolean isSuccess() {
+        return failedMessages.isEmpty();
+    }
+}
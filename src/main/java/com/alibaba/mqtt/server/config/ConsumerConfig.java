@@ -17,9 +17,89 @@
 
 package com.alibaba.mqtt.server.config;
 
+import com.alibaba.mqtt.server.callback.OrderKeySelector;
+
+import java.util.Map;
+
 public class ConsumerConfig {
     private int minConsumeThreadNum = 16;
     private int maxConsumeThreadNum = 32;
+    /**
+     * connections opened at start, every subscription is consumed on each of their channels
+     */
+    private int connectionNum = 4;
+    private int channelNumPerConnection = 1;
+    /**
+     * open connections up to maxConnectionNum while each channel delivers more than elasticScaleUpRate
+     * messages per second with less than elasticMaxBacklog unacked, close them again down to connectionNum
+     * while each delivers less than elasticScaleDownRate. A connection being closed stops consuming first and is closed
+     * once every delivery it received is acked or nacked, or after elasticRetireTimeoutMills at the latest
+     */
+    private boolean elasticConnection = false;
+    private int maxConnectionNum = 16;
+    private long elasticCheckIntervalMills = 10000;
+    private int elasticScaleUpRate = 2000;
+    private int elasticScaleDownRate = 200;
+    private int elasticMaxBacklog = 1000;
+    private long elasticRetireTimeoutMills = 60000;
+    /**
+     * when larger than 1, deliveries are acked cumulatively once this many more of them are processed in a row,
+     * or every ackIntervalMills, instead of one ack per delivery
+     */
+    private int ackBatchSize = 0;
+    private long ackIntervalMills = 100;
+    /**
+     * a BatchMessageListener gets up to batchMaxMessages per call, or what arrived within batchWindowMills
+     * of the first message
+     */
+    private int batchMaxMessages = 100;
+    private long batchWindowMills = 100;
+    /**
+     * when set, MessageListener deliveries with the same key are processed one at a time in delivery order,
+     * on orderedLaneNum single-threaded lanes (0 means maxConsumeThreadNum) holding up to orderedLaneQueueSize each.
+     * A full lane blocks the delivery thread, which holds back the channel until the lane has room.
+     * Order only holds within one channel, so start() fails unless connectionNum and channelNumPerConnection
+     * are 1 and elasticConnection is off.
+     */
+    private OrderKeySelector orderKeySelector;
+    private int orderedLaneNum = 0;
+    private int orderedLaneQueueSize = 1000;
+    /**
+     * consumers are cancelled once flowControlHighMessages deliveries or flowControlHighBytes payload bytes wait to be
+     * processed, and started again once both are back under the low marks, 0 disables a limit.
+     * A delivery the consume threads still have no room for is requeued.
+     */
+    private int flowControlHighMessages = 20000;
+    private int flowControlLowMessages = 10000;
+    private long flowControlHighBytes = 256L * 1024 * 1024;
+    private long flowControlLowBytes = 128L * 1024 * 1024;
+    /**
+     * on Java 21 and later run every MessageListener and BatchMessageListener call on its own virtual thread,
+     * at most virtualThreadMaxConcurrency at a time, instead of the min/maxConsumeThreadNum pool.
+     * Blocking listeners then scale without a platform thread each. Ignored before Java 21 and in ordered mode.
+     */
+    private boolean virtualThreads = false;
+    private int virtualThreadMaxConcurrency = 1000;
+    /**
+     * unacked messages the broker may push to each subscription, 0 is unlimited.
+     * topicPrefetchCounts overrides it for specific first-level topics.
+     */
+    private int prefetchCount = 0;
+    private Map<String, Integer> topicPrefetchCounts;
+    /**
+     * unacked messages the broker may push to each channel over all its subscriptions, 0 is unlimited
+     */
+    private int channelPrefetchCount = 0;
+    /**
+     * size the channel prefetch from listener latency and the consume executor queue instead of channelPrefetchCount
+     */
+    private boolean adaptivePrefetch = false;
+    private int minPrefetchCount = 8;
+    private int maxPrefetchCount = 2048;
+    /**
+     * how long a message may wait in the consume executor queue under adaptive prefetch
+     */
+    private long adaptiveQueueDelayMills = 200;
 
     public int getMinConsumeThreadNum() {
         return minConsumeThreadNum;
@@ -36,4 +116,236 @@ public class ConsumerConfig {
     public void setMaxConsumeThreadNum(int maxConsumeThreadNum) {
         this.maxConsumeThreadNum = maxConsumeThreadNum;
     }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+
+    public Map<String, Integer> getTopicPrefetchCounts() {
+        return topicPrefetchCounts;
+    }
+
+    public void setTopicPrefetchCounts(Map<String, Integer> topicPrefetchCounts) {
+        this.topicPrefetchCounts = topicPrefetchCounts;
+    }
+
+    public int getChannelPrefetchCount() {
+        return channelPrefetchCount;
+    }
+
+    public void setChannelPrefetchCount(int channelPrefetchCount) {
+        this.channelPrefetchCount = channelPrefetchCount;
+    }
+
+    public boolean isAdaptivePrefetch() {
+        return adaptivePrefetch;
+    }
+
+    public void setAdaptivePrefetch(boolean adaptivePrefetch) {
+        this.adaptivePrefetch = adaptivePrefetch;
+    }
+
+    public int getMinPrefetchCount() {
+        return minPrefetchCount;
+    }
+
+    public void setMinPrefetchCount(int minPrefetchCount) {
+        this.minPrefetchCount = minPrefetchCount;
+    }
+
+    public int getMaxPrefetchCount() {
+        return maxPrefetchCount;
+    }
+
+    public void setMaxPrefetchCount(int maxPrefetchCount) {
+        this.maxPrefetchCount = maxPrefetchCount;
+    }
+
+    public long getAdaptiveQueueDelayMills() {
+        return adaptiveQueueDelayMills;
+    }
+
+    public void setAdaptiveQueueDelayMills(long adaptiveQueueDelayMills) {
+        this.adaptiveQueueDelayMills = adaptiveQueueDelayMills;
+    }
+
+    public int getConnectionNum() {
+        return connectionNum;
+    }
+
+    public void setConnectionNum(int connectionNum) {
+        this.connectionNum = connectionNum;
+    }
+
+    public int getChannelNumPerConnection() {
+        return channelNumPerConnection;
+    }
+
+    public void setChannelNumPerConnection(int channelNumPerConnection) {
+        this.channelNumPerConnection = channelNumPerConnection;
+    }
+
+    public boolean isElasticConnection() {
+        return elasticConnection;
+    }
+
+    public void setElasticConnection(boolean elasticConnection) {
+        this.elasticConnection = elasticConnection;
+    }
+
+    public int getMaxConnectionNum() {
+        return maxConnectionNum;
+    }
+
+    public void setMaxConnectionNum(int maxConnectionNum) {
+        this.maxConnectionNum = maxConnectionNum;
+    }
+
+    public long getElasticCheckIntervalMills() {
+        return elasticCheckIntervalMills;
+    }
+
+    public void setElasticCheckIntervalMills(long elasticCheckIntervalMills) {
+        this.elasticCheckIntervalMills = elasticCheckIntervalMills;
+    }
+
+    public int getElasticScaleUpRate() {
+        return elasticScaleUpRate;
+    }
+
+    public void setElasticScaleUpRate(int elasticScaleUpRate) {
+        this.elasticScaleUpRate = elasticScaleUpRate;
+    }
+
+    public int getElasticScaleDownRate() {
+        return elasticScaleDownRate;
+    }
+
+    public void setElasticScaleDownRate(int elasticScaleDownRate) {
+        this.elasticScaleDownRate = elasticScaleDownRate;
+    }
+
+    public int getElasticMaxBacklog() {
+        return elasticMaxBacklog;
+    }
+
+    public void setElasticMaxBacklog(int elasticMaxBacklog) {
+        this.elasticMaxBacklog = elasticMaxBacklog;
+    }
+
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    public void setAckBatchSize(int ackBatchSize) {
+        this.ackBatchSize = ackBatchSize;
+    }
+
+    public long getAckIntervalMills() {
+        return ackIntervalMills;
+    }
+
+    public void setAckIntervalMills(long ackIntervalMills) {
+        this.ackIntervalMills = ackIntervalMills;
+    }
+
+    public int getBatchMaxMessages() {
+        return batchMaxMessages;
+    }
+
+    public void setBatchMaxMessages(int batchMaxMessages) {
+        this.batchMaxMessages = batchMaxMessages;
+    }
+
+    public long getBatchWindowMills() {
+        return batchWindowMills;
+    }
+
+    public void setBatchWindowMills(long batchWindowMills) {
+        this.batchWindowMills = batchWindowMills;
+    }
+
+    public OrderKeySelector getOrderKeySelector() {
+        return orderKeySelector;
+    }
+
+    public void setOrderKeySelector(OrderKeySelector orderKeySelector) {
+        this.orderKeySelector = orderKeySelector;
+    }
+
+    public int getOrderedLaneNum() {
+        return orderedLaneNum;
+    }
+
+    public void setOrderedLaneNum(int orderedLaneNum) {
+        this.orderedLaneNum = orderedLaneNum;
+    }
+
+    public int getOrderedLaneQueueSize() {
+        return orderedLaneQueueSize;
+    }
+
+    public void setOrderedLaneQueueSize(int orderedLaneQueueSize) {
+        this.orderedLaneQueueSize = orderedLaneQueueSize;
+    }
+
+    public int getFlowControlHighMessages() {
+        return flowControlHighMessages;
+    }
+
+    public void setFlowControlHighMessages(int flowControlHighMessages) {
+        this.flowControlHighMessages = flowControlHighMessages;
+    }
+
+    public int getFlowControlLowMessages() {
+        return flowControlLowMessages;
+    }
+
+    public void setFlowControlLowMessages(int flowControlLowMessages) {
+        this.flowControlLowMessages = flowControlLowMessages;
+    }
+
+    public long getFlowControlHighBytes() {
+        return flowControlHighBytes;
+    }
+
+    public void setFlowControlHighBytes(long flowControlHighBytes) {
+        this.flowControlHighBytes = flowControlHighBytes;
+    }
+
+    public long getFlowControlLowBytes() {
+        return flowControlLowBytes;
+    }
+
+    public void setFlowControlLowBytes(long flowControlLowBytes) {
+        this.flowControlLowBytes = flowControlLowBytes;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public int getVirtualThreadMaxConcurrency() {
+        return virtualThreadMaxConcurrency;
+    }
+
+    public void setVirtualThreadMaxConcurrency(int virtualThreadMaxConcurrency) {
+        this.virtualThreadMaxConcurrency = virtualThreadMaxConcurrency;
+    }
+
+    public long getElasticRetireTimeoutMills() {
+        return elasticRetireTimeoutMills;
+    }
+
+    public void setElasticRetireTimeoutMills(long elasticRetireTimeoutMills) {
+        this.elasticRetireTimeoutMills = elasticRetireTimeoutMills;
+    }
 }
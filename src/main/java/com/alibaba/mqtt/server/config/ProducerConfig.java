@@ -17,8 +17,91 @@
 
 package com.alibaba.mqtt.server.config;
 
+import com.alibaba.mqtt.server.util.DefaultMessageIdGenerator;
+import com.alibaba.mqtt.server.util.MessageIdGenerator;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
 public class ProducerConfig {
     private long sendTimeoutMills = 5000;
+    /**
+     * resolution of send timeouts
+     */
+    private long timeoutTickMills = 100;
+    private int timeoutWheelSize = 512;
+    private int connectionNum = 1;
+    private int channelNumPerConnection = 1;
+    private ChannelSelectStrategy channelSelectStrategy = ChannelSelectStrategy.THREAD;
+    /**
+     * when larger than 0, sends are queued and written by one publisher thread per channel,
+     * which waits up to lingerMills for more messages before flushing a batch
+     */
+    private long lingerMills = 0;
+    private int batchMaxMessages = 256;
+    private long batchMaxBytes = 1024 * 1024;
+    /**
+     * limits on messages published but not yet confirmed, 0 means unlimited
+     */
+    private int maxInFlightMessages = 0;
+    private long maxInFlightBytes = 0;
+    private InFlightLimitPolicy inFlightLimitPolicy = InFlightLimitPolicy.BLOCK;
+    private long inFlightBlockTimeoutMills = 3000;
+    private MessageIdGenerator messageIdGenerator = new DefaultMessageIdGenerator();
+    private UserPropertyEncoding userPropertyEncoding = UserPropertyEncoding.JSON;
+    /**
+     * payloads of at least this many bytes are deflate compressed, 0 disables compression.
+     * Only ServerConsumer decompresses them, so enable it for topics no MQTT client subscribes to.
+     */
+    private int compressThreshold = 0;
+    private int compressLevel = Deflater.DEFAULT_COMPRESSION;
+    /**
+     * directory of a memory-mapped spool for single message sends, null disables it.
+     * While the channel is closed, the in-flight limit is reached or older messages are still spooled,
+     * sends are written to the spool and republished in order when the broker accepts them again.
+     * Records are written to the page cache, so they survive a process crash but not a host crash.
+     * A synchronous send may time out while its spooled copy is still delivered later.
+     */
+    private String spoolDir;
+    private int spoolSegmentSize = 64 * 1024 * 1024;
+    private int spoolMaxSegments = 16;
+    /**
+     * spooled messages republished but not yet confirmed
+     */
+    private int spoolDrainWindow = 256;
+    private long spoolRetryIntervalMills = 1000;
+    /**
+     * A spooled message that is nacked or times out is retried from the spool checkpoint, after
+     * spoolRetryIntervalMills doubled on every further attempt up to 64 times. After spoolMaxAttempts
+     * published attempts its callback gets onFail and the spool moves past it, so one message the broker
+     * keeps rejecting can not hold back the rest. Attempts refused while the channel is closed do not count.
+     * Not larger than 0 retries forever.
+     */
+    private int spoolMaxAttempts = 10;
+    /**
+     * when larger than 0, ServerProducer.sendLatest keeps only the newest unsent message per topic
+     * and publishes the current ones at this interval
+     */
+    private long conflationFlushMills = 0;
+    /**
+     * runs SendCallbacks and completes send futures, null for a pool of callbackThreadNum threads owned by the producer.
+     * A single thread keeps callbacks in confirm order.
+     */
+    private Executor callbackExecutor;
+    private int callbackThreadNum = 1;
+    /**
+     * sends per second allowed for each first-level topic, 0 is unlimited.
+     * topicRateLimits overrides it for specific first-level topics.
+     */
+    private int topicRateLimit = 0;
+    private Map<String, Integer> topicRateLimits;
+    /**
+     * seconds worth of sends a first-level topic can burst after being idle
+     */
+    private double topicRateBurstSeconds = 1;
+    private RateLimitPolicy topicRateLimitPolicy = RateLimitPolicy.WAIT;
+    private long topicRateWaitTimeoutMills = 3000;
 
     public long getSendTimeoutMills() {
         return sendTimeoutMills;
@@ -27,4 +110,244 @@ public class ProducerConfig {
     public void setSendTimeoutMills(long sendTimeoutMills) {
         this.sendTimeoutMills = sendTimeoutMills;
     }
+
+    public long getTimeoutTickMills() {
+        return timeoutTickMills;
+    }
+
+    public void setTimeoutTickMills(long timeoutTickMills) {
+        this.timeoutTickMills = timeoutTickMills;
+    }
+
+    public int getTimeoutWheelSize() {
+        return timeoutWheelSize;
+    }
+
+    public void setTimeoutWheelSize(int timeoutWheelSize) {
+        this.timeoutWheelSize = timeoutWheelSize;
+    }
+
+    public int getConnectionNum() {
+        return connectionNum;
+    }
+
+    public void setConnectionNum(int connectionNum) {
+        this.connectionNum = connectionNum;
+    }
+
+    public int getChannelNumPerConnection() {
+        return channelNumPerConnection;
+    }
+
+    public void setChannelNumPerConnection(int channelNumPerConnection) {
+        this.channelNumPerConnection = channelNumPerConnection;
+    }
+
+    public ChannelSelectStrategy getChannelSelectStrategy() {
+        return channelSelectStrategy;
+    }
+
+    public void setChannelSelectStrategy(ChannelSelectStrategy channelSelectStrategy) {
+        this.channelSelectStrategy = channelSelectStrategy;
+    }
+
+    public long getLingerMills() {
+        return lingerMills;
+    }
+
+    public void setLingerMills(long lingerMills) {
+        this.lingerMills = lingerMills;
+    }
+
+    public int getBatchMaxMessages() {
+        return batchMaxMessages;
+    }
+
+    public void setBatchMaxMessages(int batchMaxMessages) {
+        this.batchMaxMessages = batchMaxMessages;
+    }
+
+    public long getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public void setBatchMaxBytes(long batchMaxBytes) {
+        this.batchMaxBytes = batchMaxBytes;
+    }
+
+    public int getMaxInFlightMessages() {
+        return maxInFlightMessages;
+    }
+
+    public void setMaxInFlightMessages(int maxInFlightMessages) {
+        this.maxInFlightMessages = maxInFlightMessages;
+    }
+
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    public InFlightLimitPolicy getInFlightLimitPolicy() {
+        return inFlightLimitPolicy;
+    }
+
+    public void setInFlightLimitPolicy(InFlightLimitPolicy inFlightLimitPolicy) {
+        this.inFlightLimitPolicy = inFlightLimitPolicy;
+    }
+
+    public long getInFlightBlockTimeoutMills() {
+        return inFlightBlockTimeoutMills;
+    }
+
+    public void setInFlightBlockTimeoutMills(long inFlightBlockTimeoutMills) {
+        this.inFlightBlockTimeoutMills = inFlightBlockTimeoutMills;
+    }
+
+    public MessageIdGenerator getMessageIdGenerator() {
+        return messageIdGenerator;
+    }
+
+    public void setMessageIdGenerator(MessageIdGenerator messageIdGenerator) {
+        this.messageIdGenerator = messageIdGenerator;
+    }
+
+    public UserPropertyEncoding getUserPropertyEncoding() {
+        return userPropertyEncoding;
+    }
+
+    public void setUserPropertyEncoding(UserPropertyEncoding userPropertyEncoding) {
+        this.userPropertyEncoding = userPropertyEncoding;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public int getCompressLevel() {
+        return compressLevel;
+    }
+
+    public void setCompressLevel(int compressLevel) {
+        this.compressLevel = compressLevel;
+    }
+
+    public String getSpoolDir() {
+        return spoolDir;
+    }
+
+    public void setSpoolDir(String spoolDir) {
+        this.spoolDir = spoolDir;
+    }
+
+    public int getSpoolSegmentSize() {
+        return spoolSegmentSize;
+    }
+
+    public void setSpoolSegmentSize(int spoolSegmentSize) {
+        this.spoolSegmentSize = spoolSegmentSize;
+    }
+
+    public int getSpoolMaxSegments() {
+        return spoolMaxSegments;
+    }
+
+    public void setSpoolMaxSegments(int spoolMaxSegments) {
+        this.spoolMaxSegments = spoolMaxSegments;
+    }
+
+    public int getSpoolDrainWindow() {
+        return spoolDrainWindow;
+    }
+
+    public void setSpoolDrainWindow(int spoolDrainWindow) {
+        this.spoolDrainWindow = spoolDrainWindow;
+    }
+
+    public long getSpoolRetryIntervalMills() {
+        return spoolRetryIntervalMills;
+    }
+
+    public void setSpoolRetryIntervalMills(long spoolRetryIntervalMills) {
+        this.spoolRetryIntervalMills = spoolRetryIntervalMills;
+    }
+
+    public int getSpoolMaxAttempts() {
+        return spoolMaxAttempts;
+    }
+
+    public void setSpoolMaxAttempts(int spoolMaxAttempts) {
+        this.spoolMaxAttempts = spoolMaxAttempts;
+    }
+
+    public int getTopicRateLimit() {
+        return topicRateLimit;
+    }
+
+    public void setTopicRateLimit(int topicRateLimit) {
+        this.topicRateLimit = topicRateLimit;
+    }
+
+    public Map<String, Integer> getTopicRateLimits() {
+        return topicRateLimits;
+    }
+
+    public void setTopicRateLimits(Map<String, Integer> topicRateLimits) {
+        this.topicRateLimits = topicRateLimits;
+    }
+
+    public double getTopicRateBurstSeconds() {
+        return topicRateBurstSeconds;
+    }
+
+    public void setTopicRateBurstSeconds(double topicRateBurstSeconds) {
+        this.topicRateBurstSeconds = topicRateBurstSeconds;
+    }
+
+    public RateLimitPolicy getTopicRateLimitPolicy() {
+        return topicRateLimitPolicy;
+    }
+
+    public void setTopicRateLimitPolicy(RateLimitPolicy topicRateLimitPolicy) {
+        this.topicRateLimitPolicy = topicRateLimitPolicy;
+    }
+
+    public long getTopicRateWaitTimeoutMills() {
+        return topicRateWaitTimeoutMills;
+    }
+
+    public void setTopicRateWaitTimeoutMills(long topicRateWaitTimeoutMills) {
+        this.topicRateWaitTimeoutMills = topicRateWaitTimeoutMills;
+    }
+
+    public long getConflationFlushMills() {
+        return conflationFlushMills;
+    }
+
+    public void setConflationFlushMills(long conflationFlushMills) {
+        this.conflationFlushMills = conflationFlushMills;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public int getCallbackThreadNum() {
+        return callbackThreadNum;
+    }
+
+    public void setCallbackThreadNum(int callbackThreadNum) {
+        this.callbackThreadNum = callbackThreadNum;
+    }
 }
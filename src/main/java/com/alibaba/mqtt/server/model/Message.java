@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.model;
+
+import java.util.List;
+
+public class Message {
+    private String mqttTopic;
+    private byte[] payload;
+    /**
+     * unit: second
+     */
+    private String mqtt5MsgExpireInterval;
+    private String mqtt5ContentType;
+    private List<StringPair> mqtt5UserProperty;
+    /**
+     * when set, used instead of the three mqtt5 fields above
+     */
+    private PropertiesTemplate propertiesTemplate;
+
+    public Message(String mqttTopic, byte[] payload) {
+        this.mqttTopic = mqttTopic;
+        this.payload = payload;
+    }
+
+    public String getMqttTopic() {
+        return mqttTopic;
+    }
+
+    public void setMqttTopic(String mqttTopic) {
+        this.mqttTopic = mqttTopic;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public void setPayload(byte[] payload) {
+        this.payload = payload;
+    }
+
+    public String getMqtt5MsgExpireInterval() {
+        return mqtt5MsgExpireInterval;
+    }
+
+    public void setMqtt5MsgExpireInterval(String mqtt5MsgExpireInterval) {
+        this.mqtt5MsgExpireInterval = mqtt5MsgExpireInterval;
+    }
+
+    public String getMqtt5ContentType() {
+        return mqtt5ContentType;
+    }
+
+    public void setMqtt5ContentType(String mqtt5ContentType) {
+        this.mqtt5ContentType = mqtt5ContentType;
+    }
+
+    public List<StringPair> getMqtt5UserProperty() {
+        return mqtt5UserProperty;
+    }
+
+    public void setMqtt5UserProperty(List<StringPair> mqtt5UserProperty) {
+        this.mqtt5UserProperty = mqtt5UserProperty;
+    }
+
+    public PropertiesTemplate getPropertiesTemplate() {
+        return propertiesTemplate;
+    }
+
+    public void setPropertiesTemplate(PropertiesTemplate propertiesTemplate) {
+        this.propertiesTemplate = propertiesTemplate;
+    }
+}
@@ -17,80 +17,112 @@
 
 package com.alibaba.mqtt.server.model;
 
+import com.alibaba.mqtt.server.util.UserPropertyCodec;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.LongString;
 
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Properties of a received message. Headers are kept as received and each one is decoded on its first access,
+ * so a listener that only reads the payload does not pay for them.
+ */
 public class MessageProperties {
     private static final String PROPERTY_MQTT_SECOND_TOPIC = "mqttSecondTopic";
     private static final String PROPERTY_MQTT_PARENT_TOPIC = "mqttParentTopic";
     private static final String PROPERTY_MQTT_CLIENT = "clientId";
     private static final String PROPERTY_MQTT_BORN_TIME = "bornTime";
     public static final String MQTT5_USER_PROPERTIES = "mqtt5UserProperty";
+    /**
+     * set by ServerProducer when it compressed the payload, ServerConsumer decompresses before calling the listener
+     */
+    public static final String SDK_COMPRESSION = "mqttSdkCompression";
 
+    private final AMQP.BasicProperties properties;
+    private final Map<String, Object> headers;
     private String firstTopic;
     private String secondTopic;
     private String clientId;
     private Long bornTime;
-    private String mqtt5ContentType;
-    /**
-     * unit: second
-     */
-    private String mqtt5MsgExpireInterval;
     private String mqtt5UserProperty;
 
     public MessageProperties(AMQP.BasicProperties properties) {
-        Map<String, Object> headers = properties.getHeaders();
-        if (headers == null) {
-            return;
-        }
-        for (Map.Entry<String, Object> entry : headers.entrySet()) {
-            LongString value = (entry.getValue() instanceof LongString) ? (LongString) entry.getValue() : null;
-            if (value == null) {
-                continue;
-            }
-            if (PROPERTY_MQTT_PARENT_TOPIC.equals(entry.getKey())) {
-                firstTopic = value.toString();
-            } else if (PROPERTY_MQTT_SECOND_TOPIC.equals(entry.getKey())) {
-                secondTopic = value.toString();
-            } else if (PROPERTY_MQTT_CLIENT.equals(entry.getKey())) {
-                clientId = value.toString();
-            } else if (PROPERTY_MQTT_BORN_TIME.equals(entry.getKey())) {
-                bornTime = Long.parseLong(value.toString());
-            } else if (MQTT5_USER_PROPERTIES.equals(entry.getKey())) {
-                mqtt5UserProperty = value.toString();
-            }
-        }
-        mqtt5ContentType = properties.getContentType();
-        mqtt5MsgExpireInterval = properties.getExpiration();
+        this.properties = properties;
+        this.headers = properties.getHeaders();
+    }
+
+    /**
+     * @return the header as a String if it was sent as one, decoding it on every call
+     */
+    private String decodeHeader(String name) {
+        Object value = headers == null ? null : headers.get(name);
+        return value instanceof LongString ? value.toString() : null;
     }
 
     public String getFirstTopic() {
+        if (firstTopic == null) {
+            firstTopic = decodeHeader(PROPERTY_MQTT_PARENT_TOPIC);
+        }
         return firstTopic;
     }
 
     public String getSecondTopic() {
+        if (secondTopic == null) {
+            secondTopic = decodeHeader(PROPERTY_MQTT_SECOND_TOPIC);
+        }
         return secondTopic;
     }
 
     public String getClientId() {
+        if (clientId == null) {
+            clientId = decodeHeader(PROPERTY_MQTT_CLIENT);
+        }
         return clientId;
     }
 
     public Long getBornTime() {
+        if (bornTime == null) {
+            String value = decodeHeader(PROPERTY_MQTT_BORN_TIME);
+            if (value != null) {
+                bornTime = Long.parseLong(value);
+            }
+        }
         return bornTime;
     }
 
     public String getMqtt5ContentType() {
-        return mqtt5ContentType;
+        return properties.getContentType();
     }
 
+    /**
+     * @return unit: second
+     */
     public String getMqtt5MsgExpireInterval() {
-        return mqtt5MsgExpireInterval;
+        return properties.getExpiration();
     }
 
+    /**
+     * @return user properties as a JSON array, also when they were sent with the binary encoding
+     */
     public String getMqtt5UserProperty() {
+        if (mqtt5UserProperty == null) {
+            mqtt5UserProperty = decodeHeader(MQTT5_USER_PROPERTIES);
+            if (mqtt5UserProperty == null && headers != null && headers.get(MQTT5_USER_PROPERTIES) instanceof byte[]) {
+                mqtt5UserProperty = UserPropertyCodec.encodeJson(getMqtt5UserPropertyList());
+            }
+        }
         return mqtt5UserProperty;
     }
+
+    /**
+     * @return decoded user properties, null if the message has none
+     */
+    public List<StringPair> getMqtt5UserPropertyList() {
+        Object mqtt5UserPropertyHeader = headers == null ? null : headers.get(MQTT5_USER_PROPERTIES);
+        if (mqtt5UserPropertyHeader == null) {
+            return null;
+        }
+        return UserPropertyCodec.decode(mqtt5UserPropertyHeader);
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.model;
+
+import com.alibaba.mqtt.server.config.UserPropertyEncoding;
+import com.alibaba.mqtt.server.util.DeflateCodec;
+import com.alibaba.mqtt.server.util.UserPropertyCodec;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The per-message AMQP properties that do not change between sends, with the user properties already encoded.
+ * Reuse one instance for every send with the same content type, expiry and user properties,
+ * so only seqId and messageId are filled in per message.
+ */
+public class PropertiesTemplate {
+    private final String mqtt5MsgExpireInterval;
+    private final String mqtt5ContentType;
+    private final List<StringPair> mqtt5UserProperty;
+    private final Map<String, Object> headers;
+    private volatile PropertiesTemplate deflated;
+
+    /**
+     * @param mqtt5MsgExpireInterval unit: second
+     * @param mqtt5ContentType
+     * @param mqtt5UserProperty
+     * @param userPropertyEncoding
+     */
+    public PropertiesTemplate(String mqtt5MsgExpireInterval,
+                              String mqtt5ContentType,
+                              List<StringPair> mqtt5UserProperty,
+                              UserPropertyEncoding userPropertyEncoding) {
+        this.mqtt5MsgExpireInterval = mqtt5MsgExpireInterval;
+        this.mqtt5ContentType = mqtt5ContentType;
+        this.mqtt5UserProperty = mqtt5UserProperty;
+        if (mqtt5UserProperty != null && !mqtt5UserProperty.isEmpty()) {
+            Object encoded = userPropertyEncoding == UserPropertyEncoding.BINARY ?
+                    UserPropertyCodec.encodeBinary(mqtt5UserProperty) : UserPropertyCodec.encodeJson(mqtt5UserProperty);
+            this.headers = Collections.singletonMap(MessageProperties.MQTT5_USER_PROPERTIES, encoded);
+        } else {
+            this.headers = Collections.emptyMap();
+        }
+    }
+
+    private PropertiesTemplate(PropertiesTemplate template, Map<String, Object> headers) {
+        this.mqtt5MsgExpireInterval = template.mqtt5MsgExpireInterval;
+        this.mqtt5ContentType = template.mqtt5ContentType;
+        this.mqtt5UserProperty = template.mqtt5UserProperty;
+        this.headers = headers;
+    }
+
+    /**
+     * @return the same properties, marking the payload as deflate compressed
+     */
+    public PropertiesTemplate deflated() {
+        PropertiesTemplate template = deflated;
+        if (template == null) {
+            Map<String, Object> deflatedHeaders = new HashMap<>(headers);
+            deflatedHeaders.put(MessageProperties.SDK_COMPRESSION, DeflateCodec.NAME);
+            template = new PropertiesTemplate(this, Collections.unmodifiableMap(deflatedHeaders));
+            deflated = template;
+        }
+        return template;
+    }
+
+    public String getMqtt5MsgExpireInterval() {
+        return mqtt5MsgExpireInterval;
+    }
+
+    public String getMqtt5ContentType() {
+        return mqtt5ContentType;
+    }
+
+    public List<StringPair> getMqtt5UserProperty() {
+        return mqtt5UserProperty;
+    }
+
+    /**
+     * @return the encoded headers shared by every message built from this template
+     */
+    public Map<String, Object> getHeaders() {
+        return headers;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.model;
+
+/**
+ * A message delivered to a {@link com.alibaba.mqtt.server.callback.BatchMessageListener}.
+ */
+public class ReceivedMessage {
+    private final String msgId;
+    private final MessageProperties messageProperties;
+    private final byte[] payload;
+
+    public ReceivedMessage(String msgId, MessageProperties messageProperties, byte[] payload) {
+        this.msgId = msgId;
+        this.messageProperties = messageProperties;
+        this.payload = payload;
+    }
+
+    public String getMsgId() {
+        return msgId;
+    }
+
+    public MessageProperties getMessageProperties() {
+        return messageProperties;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
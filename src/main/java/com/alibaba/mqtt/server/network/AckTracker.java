@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+
+/**
+ * Acks the deliveries of one channel cumulatively. Delivery tags are completed in any order, and once
+ * batchSize more of them form a contiguous run, or on {@link #flush()}, a single basicAck(tag, multiple=true)
+ * acks the whole run. Nacks are sent right away and only count as completed for the run.
+ * A delivery that is never completed holds back the acks of every later one.
+ */
+public class AckTracker {
+    private final Channel channel;
+    private final int batchSize;
+    private boolean[] completed;
+    private int mask;
+    private long acked;
+    private long contiguous;
+
+    /**
+     * @param batchSize not larger than 1 acks every delivery on its own
+     */
+    public AckTracker(Channel channel, int batchSize) {
+        this.channel = channel;
+        this.batchSize = batchSize;
+        if (batchSize > 1) {
+            int capacity = 16;
+            while (capacity < batchSize * 2) {
+                capacity <<= 1;
+            }
+            this.completed = new boolean[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    public void ack(long deliveryTag) throws IOException {
+        if (batchSize <= 1) {
+            channel.basicAck(deliveryTag, false);
+            return;
+        }
+        synchronized (this) {
+            complete(deliveryTag);
+            if (contiguous - acked >= batchSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * ack deliveries processed as one unit, with a single cumulative ack once they are contiguous with
+     * everything before them. Without batching, other deliveries of the channel may be unacked below
+     * them, so each is acked on its own.
+     */
+    public void ack(long[] deliveryTags, int count) throws IOException {
+        if (batchSize <= 1) {
+            for (int i = 0; i < count; i++) {
+                channel.basicAck(deliveryTags[i], false);
+            }
+            return;
+        }
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                complete(deliveryTags[i]);
+            }
+            flush();
+        }
+    }
+
+    public void nack(long[] deliveryTags, int count, boolean requeue) throws IOException {
+        try {
+            for (int i = 0; i < count; i++) {
+                channel.basicNack(deliveryTags[i], false, requeue);
+            }
+        } finally {
+            if (batchSize > 1) {
+                synchronized (this) {
+                    for (int i = 0; i < count; i++) {
+                        complete(deliveryTags[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The tag is completed after the nack, so a concurrent flush can not ack it first. It is completed
+     * even if the nack fails: a recovered channel keeps this tracker, and a gap would hold back its acks for good.
+     */
+    public void nack(long deliveryTag, boolean requeue) throws IOException {
+        try {
+            channel.basicNack(deliveryTag, false, requeue);
+        } finally {
+            if (batchSize > 1) {
+                synchronized (this) {
+                    complete(deliveryTag);
+                }
+            }
+        }
+    }
+
+    /**
+     * ack the contiguous run of completed deliveries not acked yet
+     */
+    public synchronized void flush() throws IOException {
+        if (contiguous > acked) {
+            long deliveryTag = contiguous;
+            acked = contiguous;
+            channel.basicAck(deliveryTag, true);
+        }
+    }
+
+    private void complete(long deliveryTag) {
+        if (deliveryTag <= contiguous) {
+            return;
+        }
+        if (deliveryTag - contiguous > completed.length) {
+            grow(deliveryTag - contiguous);
+        }
+        completed[(int) deliveryTag & mask] = true;
+        while (completed[(int) (contiguous + 1) & mask]) {
+            completed[(int) (contiguous + 1) & mask] = false;
+            contiguous++;
+        }
+    }
+
+    private void grow(long required) {
+        int capacity = completed.length;
+        while (capacity < required) {
+            capacity <<= 1;
+        }
+        boolean[] newCompleted = new boolean[capacity];
+        int newMask = capacity - 1;
+        for (long tag = contiguous + 1; tag <= contiguous + completed.length; tag++) {
+            newCompleted[(int) tag & newMask] = completed[(int) tag & mask];
+        }
+        completed = newCompleted;
+        mask = newMask;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sizes the channel prefetch from what the consumer threads can take: enough to keep every thread busy
+ * plus targetQueueDelayMills worth of messages at the rate the threads complete them, computed from
+ * the average listener latency. The prefetch is halved while the executor queue holds more than that.
+ */
+public class AdaptivePrefetch {
+    private final int threads;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final long targetQueueDelayMills;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder processNanos = new LongAdder();
+    private volatile int prefetch;
+
+    public AdaptivePrefetch(int threads, int channels, int minPrefetch, int maxPrefetch, long targetQueueDelayMills) {
+        this.threads = Math.max(1, threads);
+        this.minPrefetch = Math.max(1, minPrefetch);
+        this.maxPrefetch = Math.max(this.minPrefetch, maxPrefetch);
+        this.targetQueueDelayMills = targetQueueDelayMills;
+        this.prefetch = clamp(this.threads / Math.max(1, channels) + 1);
+    }
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * @param nanos    time the listener took for all the messages
+     * @param messages messages processed in one call
+     */
+    public void record(long nanos, int messages) {
+        processed.add(messages);
+        processNanos.add(nanos);
+    }
+
+    /**
+     * @param queueDepth messages waiting in the consume executor queue
+     * @param channels   channels sharing the consume executor
+     * @return the prefetch per channel, from the latencies recorded since the last call
+     */
+    public int adjust(int queueDepth, int channels) {
+        channels = Math.max(1, channels);
+        long count = processed.sumThenReset();
+        long nanos = processNanos.sumThenReset();
+        int next = prefetch;
+        if (count > 0) {
+            double ratePerMills = threads * (double) count * 1000000 / Math.max(1, nanos);
+            long queueTarget = (long) (ratePerMills * targetQueueDelayMills);
+            if (queueDepth > queueTarget) {
+                next = prefetch / 2;
+            } else {
+                next = (int) Math.min(Integer.MAX_VALUE, (threads + queueTarget + channels - 1) / channels);
+            }
+        }
+        prefetch = clamp(next);
+        return prefetch;
+    }
+
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    private int clamp(int value) {
+        return Math.max(minPrefetch, Math.min(maxPrefetch, value));
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.alibaba.mqtt.server.common.BatchSendResult;
+import com.alibaba.mqtt.server.model.Message;
+import com.alibaba.mqtt.server.model.PropertiesTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One pending entry for a whole batch published back to back, so the batch costs a single timeout
+ * and completes once, when the confirm of its last sequence number arrives.
+ */
+public class BatchSendCallbackWrapper extends SendCallbackWrapper {
+    private final List<Message> messages;
+    private final String[] msgIds;
+    private final byte[][] payloads;
+    private final PropertiesTemplate[] propertiesTemplates;
+    private final BitSet failed;
+    private final CompletableFuture<BatchSendResult> future;
+    private int remaining;
+
+    /**
+     * @param messages
+     * @param msgIds
+     * @param payloads            the payloads as published, possibly compressed
+     * @param propertiesTemplates the properties as published
+     * @param future
+     */
+    public BatchSendCallbackWrapper(List<Message> messages,
+                                    String[] msgIds,
+                                    byte[][] payloads,
+                                    PropertiesTemplate[] propertiesTemplates,
+                                    CompletableFuture<BatchSendResult> future) {
+        super(null, null);
+        this.messages = messages;
+        this.msgIds = msgIds;
+        this.payloads = payloads;
+        this.propertiesTemplates = propertiesTemplates;
+        this.failed = new BitSet(messages.size());
+        this.future = future;
+        this.remaining = messages.size();
+    }
+
+    @Override
+    protected int size() {
+        return messages.size();
+    }
+
+    @Override
+    protected void republish(PublishChannel publishChannel, long publishSeqNo) throws IOException {
+        for (int i = 0; i < msgIds.length; i++) {
+            publishChannel.basicPublish(msgIds[i], publishSeqNo + i, messages.get(i).getMqttTopic(),
+                    propertiesTemplates[i], payloads[i]);
+        }
+    }
+
+    @Override
+    protected void reset() {
+        failed.clear();
+        remaining = messages.size();
+    }
+
+    @Override
+    protected boolean settle(long publishSeqNo, boolean ack) {
+        if (!ack) {
+            failed.set((int) (publishSeqNo - this.publishSeqNo));
+        }
+        return --remaining == 0;
+    }
+
+    @Override
+    protected void complete() {
+        List<Message> failedMessages = new ArrayList<>(failed.cardinality());
+        for (int i = failed.nextSetBit(0); i >= 0; i = failed.nextSetBit(i + 1)) {
+            failedMessages.add(messages.get(i));
+        }
+        future.complete(new BatchSendResult(Arrays.asList(msgIds), failedMessages));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A consuming channel with the consumer tags of its subscriptions and delivery statistics,
+ * used to recreate it after a broker-side close and to scale the consumer.
+ */
+public class ConsumeChannel {
+    private final Connection connection;
+    private final int ackBatchSize;
+    private final FlowController flowController;
+    private final Map<String, String> consumerTags = new ConcurrentHashMap<>();
+    private final LongAdder delivered = new LongAdder();
+    private final AtomicInteger unacked = new AtomicInteger();
+    private volatile Channel channel;
+    private volatile AckTracker ackTracker;
+
+    /**
+     * @param flowController shared by every channel of the consumer, counts what they received and not settled yet
+     */
+    public ConsumeChannel(Connection connection, int ackBatchSize, FlowController flowController) throws IOException {
+        this(connection.createChannel(), ackBatchSize, flowController);
+    }
+
+    /**
+     * wrap a channel opened elsewhere, {@link #recreate()} opens its replacement on the same connection
+     */
+    public ConsumeChannel(Channel channel, int ackBatchSize, FlowController flowController) {
+        this.connection = channel.getConnection();
+        this.ackBatchSize = ackBatchSize;
+        this.flowController = flowController;
+        this.channel = channel;
+        this.ackTracker = new AckTracker(channel, ackBatchSize);
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * the tracker of the current channel, consumers keep the one of the channel they were started on
+     */
+    public AckTracker getAckTracker() {
+        return ackTracker;
+    }
+
+    /**
+     * send the acks held back by the tracker
+     */
+    public void flushAcks() {
+        try {
+            ackTracker.flush();
+        } catch (Throwable t) {
+        }
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * replace a closed channel, its consumers are gone and must be subscribed again
+     */
+    public Channel recreate() throws IOException {
+        consumerTags.clear();
+        unacked.set(0);
+        channel = connection.createChannel();
+        ackTracker = new AckTracker(channel, ackBatchSize);
+        return channel;
+    }
+
+    /**
+     * @param subscription the topic or status group the consumer was started for
+     */
+    public void addConsumer(String subscription, String consumerTag) {
+        consumerTags.put(subscription, consumerTag);
+    }
+
+    /**
+     * stop every consumer of this channel, deliveries already received can still be acked
+     */
+    public void cancelAll() {
+        for (String consumerTag : consumerTags.values()) {
+            try {
+                channel.basicCancel(consumerTag);
+            } catch (Throwable t) {
+            }
+        }
+        consumerTags.clear();
+    }
+
+    public void onDelivery(int bytes) {
+        delivered.increment();
+        unacked.incrementAndGet();
+        flowController.acquire(bytes);
+    }
+
+    public void onSettled(int messages, long bytes) {
+        unacked.addAndGet(-messages);
+        flowController.release(messages, bytes);
+    }
+
+    /**
+     * @return deliveries since the last call
+     */
+    public long sampleDelivered() {
+        return delivered.sumThenReset();
+    }
+
+    /**
+     * @return deliveries received but not acked or nacked yet
+     */
+    public int getUnacked() {
+        return unacked.get();
+    }
+}
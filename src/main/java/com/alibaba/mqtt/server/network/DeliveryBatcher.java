@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.rabbitmq.client.Delivery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups the deliveries of one consumer into batches of up to maxMessages, a batch is handed over
+ * once it is full or windowMills after its first delivery.
+ */
+public class DeliveryBatcher {
+    private final int maxMessages;
+    private final long windowMills;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<List<Delivery>> flusher;
+    private List<Delivery> batch;
+
+    public DeliveryBatcher(int maxMessages, long windowMills, ScheduledExecutorService scheduler,
+                           Consumer<List<Delivery>> flusher) {
+        this.maxMessages = Math.max(1, maxMessages);
+        this.windowMills = windowMills;
+        this.scheduler = scheduler;
+        this.flusher = flusher;
+    }
+
+    public void add(Delivery delivery) {
+        List<Delivery> full = null;
+        synchronized (this) {
+            if (batch == null) {
+                final List<Delivery> opened = new ArrayList<>(maxMessages);
+                batch = opened;
+                if (maxMessages > 1) {
+                    try {
+                        scheduler.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                flush(opened);
+                            }
+                        }, windowMills, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // stopping, the batch is handed over once full
+                    }
+                }
+            }
+            batch.add(delivery);
+            if (batch.size() >= maxMessages) {
+                full = batch;
+                batch = null;
+            }
+        }
+        if (full != null) {
+            flusher.accept(full);
+        }
+    }
+
+    private void flush(List<Delivery> opened) {
+        synchronized (this) {
+            if (batch != opened) {
+                return;
+            }
+            batch = null;
+        }
+        flusher.accept(opened);
+    }
+}
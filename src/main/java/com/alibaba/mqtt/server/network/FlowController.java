@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts deliveries received but not processed yet. It pauses once the messages or bytes pass their
+ * high-water mark, and resumes once both are back under their low-water mark. A limit not larger than 0
+ * is unlimited. The listener only learns that the state may have changed and must read {@link #isPaused()},
+ * so notifications that run out of order settle on the latest state.
+ */
+public class FlowController {
+    private final int highMessages;
+    private final int lowMessages;
+    private final long highBytes;
+    private final long lowBytes;
+    private final Runnable listener;
+    private final AtomicInteger messages = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicBoolean paused = new AtomicBoolean();
+
+    public FlowController(int highMessages, int lowMessages, long highBytes, long lowBytes, Runnable listener) {
+        this.highMessages = highMessages;
+        this.lowMessages = Math.min(lowMessages, highMessages);
+        this.highBytes = highBytes;
+        this.lowBytes = Math.min(lowBytes, highBytes);
+        this.listener = listener;
+    }
+
+    public void acquire(long bytes) {
+        int messages = this.messages.incrementAndGet();
+        long total = this.bytes.addAndGet(bytes);
+        if ((highMessages > 0 && messages >= highMessages) || (highBytes > 0 && total >= highBytes)) {
+            if (paused.compareAndSet(false, true)) {
+                listener.run();
+            }
+        }
+    }
+
+    public void release(int messages, long bytes) {
+        int remainingMessages = this.messages.addAndGet(-messages);
+        long remainingBytes = this.bytes.addAndGet(-bytes);
+        if ((highMessages <= 0 || remainingMessages <= lowMessages) && (highBytes <= 0 || remainingBytes <= lowBytes)) {
+            if (paused.compareAndSet(true, false)) {
+                listener.run();
+            }
+        }
+    }
+
+    public boolean isPaused() {
+        return paused.get();
+    }
+
+    public int getMessages() {
+        return messages.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
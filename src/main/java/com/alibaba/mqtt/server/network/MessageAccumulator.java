@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.alibaba.mqtt.server.model.Message;
+import com.alibaba.mqtt.server.util.ThreadFactoryImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects messages from any number of sending threads and hands them to a single publisher thread,
+ * which flushes when the batch is full or the linger time of its first message has passed.
+ */
+public class MessageAccumulator {
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final long lingerNanos;
+    private final int batchMaxMessages;
+    private final long batchMaxBytes;
+    private final Consumer<List<Entry>> flusher;
+    private final Thread publisherThread;
+    private volatile boolean running = true;
+
+    public MessageAccumulator(String name, long lingerMills, int batchMaxMessages, long batchMaxBytes,
+                              Consumer<List<Entry>> flusher) {
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMills);
+        this.batchMaxMessages = Math.max(1, batchMaxMessages);
+        this.batchMaxBytes = batchMaxBytes;
+        this.flusher = flusher;
+        this.publisherThread = new ThreadFactoryImpl(name, true).newThread(new Runnable() {
+            @Override
+            public void run() {
+                publishLoop();
+            }
+        });
+        this.publisherThread.start();
+    }
+
+    /**
+     * @param sendCallbackWrapper null if nobody waits for the confirm
+     */
+    public void append(Message message, String msgId, SendCallbackWrapper sendCallbackWrapper) {
+        queue.offer(new Entry(message, msgId, sendCallbackWrapper));
+    }
+
+    private void publishLoop() {
+        List<Entry> batch = new ArrayList<>(batchMaxMessages);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long bytes = first.size();
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchMaxMessages && bytes < batchMaxBytes) {
+                    Entry entry = queue.poll();
+                    if (entry == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || !running) {
+                            break;
+                        }
+                        entry = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (entry == null) {
+                            break;
+                        }
+                    }
+                    batch.add(entry);
+                    bytes += entry.size();
+                }
+                flusher.accept(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                // the flusher fails what it could not publish, this only catches what slipped through
+                for (Entry entry : batch) {
+                    if (entry.sendCallbackWrapper != null) {
+                        entry.sendCallbackWrapper.fail();
+                    }
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * publish what is already queued and stop the publisher thread
+     */
+    public void shutdown(long timeoutMills) {
+        running = false;
+        try {
+            publisherThread.join(timeoutMills);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            if (entry.sendCallbackWrapper != null) {
+                entry.sendCallbackWrapper.fail();
+            }
+        }
+    }
+
+    public static class Entry {
+        private final Message message;
+        private final String msgId;
+        private final SendCallbackWrapper sendCallbackWrapper;
+
+        Entry(Message message, String msgId, SendCallbackWrapper sendCallbackWrapper) {
+            this.message = message;
+            this.msgId = msgId;
+            this.sendCallbackWrapper = sendCallbackWrapper;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public String getMsgId() {
+            return msgId;
+        }
+
+        public SendCallbackWrapper getSendCallbackWrapper() {
+            return sendCallbackWrapper;
+        }
+
+        private long size() {
+            return message.getPayload() == null ? 0 : message.getPayload().length;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.alibaba.mqtt.server.callback.SendCallback;
+import com.alibaba.mqtt.server.model.Message;
+import com.alibaba.mqtt.server.util.ThreadFactoryImpl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Keeps at most one unsent message per key, a newer message replaces the older one in place,
+ * and hands whatever is current to the publisher every flush interval.
+ * The callback of a replaced message gets onFail.
+ */
+public class MessageConflater {
+    private final ConcurrentMap<String, Entry> pending = new ConcurrentHashMap<>();
+    private final long flushIntervalMills;
+    private final Consumer<Entry> publisher;
+    private final Thread flusherThread;
+    private volatile boolean running = true;
+
+    public MessageConflater(String name, long flushIntervalMills, Consumer<Entry> publisher) {
+        this.flushIntervalMills = flushIntervalMills;
+        this.publisher = publisher;
+        this.flusherThread = new ThreadFactoryImpl(name, true).newThread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        });
+        this.flusherThread.start();
+    }
+
+    /**
+     * @param sendCallback null if nobody waits for the confirm
+     */
+    public void offer(String key, Message message, SendCallback sendCallback) {
+        Entry replaced = pending.put(key, new Entry(message, sendCallback));
+        if (replaced != null) {
+            replaced.onFail();
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMills);
+                flush();
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+
+    private void flush() {
+        for (Map.Entry<String, Entry> entry : pending.entrySet()) {
+            // a value replaced after the iterator saw it stays for the next flush
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                publisher.accept(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * publish what is pending and stop the flusher thread
+     */
+    public void shutdown(long timeoutMills) {
+        running = false;
+        flusherThread.interrupt();
+        try {
+            flusherThread.join(timeoutMills);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Also the callback to publish the message with, it passes on the first outcome only, so a publisher that
+     * fails the entry after an exception can not report it twice when the message was registered anyway.
+     */
+    public static class Entry implements SendCallback {
+        private final Message message;
+        private final SendCallback sendCallback;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        Entry(Message message, SendCallback sendCallback) {
+            this.message = message;
+            this.sendCallback = sendCallback;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public SendCallback getSendCallback() {
+            return sendCallback;
+        }
+
+        @Override
+        public void onSuccess(String msgId) {
+            if (sendCallback != null && completed.compareAndSet(false, true)) {
+                sendCallback.onSuccess(msgId);
+            }
+        }
+
+        @Override
+        public void onFail() {
+            if (sendCallback != null && completed.compareAndSet(false, true)) {
+                sendCallback.onFail();
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.alibaba.mqtt.server.callback.SendCallback;
+import com.alibaba.mqtt.server.model.Message;
+import com.alibaba.mqtt.server.model.PropertiesTemplate;
+import com.alibaba.mqtt.server.util.MappedSpool;
+import com.alibaba.mqtt.server.util.ThreadFactoryImpl;
+import com.alibaba.mqtt.server.util.UserPropertyCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Disk spool for sends that can not be published right now. A drainer thread republishes spooled
+ * messages in order, keeps up to drainWindow of them unconfirmed, and only moves the spool checkpoint
+ * past a message once it and every message before it are confirmed. A failed confirm rewinds to the
+ * checkpoint after a backoff, so delivery is at least once, until the message at the checkpoint failed
+ * maxAttempts times: its callback then gets onFail and the checkpoint moves past it. Callbacks of messages spooled by
+ * this process run on the callback executor when their spooled copy is confirmed; messages recovered from a previous
+ * run are published without callback.
+ */
+public class MessageSpool {
+    private static final int FLAG_DEFLATED = 1;
+    private static final int PENDING = 0;
+    private static final int ACKED = 1;
+    private static final int FAILED = 2;
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    private final MappedSpool mappedSpool;
+    private final Publisher publisher;
+    private final int drainWindow;
+    private final long retryIntervalMills;
+    private final int maxAttempts;
+    private final Executor callbackExecutor;
+    /**
+     * records not committed yet, so the send path can check for them without locking the spool
+     */
+    private final AtomicInteger pending;
+    private final Map<Long, SendCallback> callbacks = new ConcurrentHashMap<>();
+    private final Object signal = new Object();
+    private final Thread drainerThread;
+    private volatile boolean running = true;
+    private boolean signalled;
+
+    /**
+     * @param maxAttempts published attempts of a message before it is given up, not larger than 0 retries forever
+     * @param callbackExecutor runs SendCallbacks, so user code never blocks the drainer, null runs them inline
+     */
+    public MessageSpool(File dir, int segmentSize, int maxSegments, int drainWindow, long retryIntervalMills,
+                        int maxAttempts, Executor callbackExecutor, Publisher publisher) throws IOException {
+        this.mappedSpool = new MappedSpool(dir, segmentSize, maxSegments);
+        this.pending = new AtomicInteger(mappedSpool.count());
+        this.callbackExecutor = callbackExecutor;
+        this.publisher = publisher;
+        this.drainWindow = Math.max(1, drainWindow);
+        this.retryIntervalMills = retryIntervalMills;
+        this.maxAttempts = maxAttempts;
+        this.drainerThread = new ThreadFactoryImpl("server_producer_spool_drainer_", true).newThread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        });
+        this.drainerThread.start();
+    }
+
+    public boolean isEmpty() {
+        return pending.get() == 0;
+    }
+
+    /**
+     * @return false if the spool is full or the message does not fit in a segment
+     */
+    public boolean append(String msgId, String mqttTopic, byte[] payload, PropertiesTemplate propertiesTemplate,
+                          boolean deflated, SendCallback sendCallback) {
+        // counted before it is appended, so the drainer never commits a record not counted yet
+        pending.incrementAndGet();
+        try {
+            long position = mappedSpool.append(encode(msgId, mqttTopic, payload, propertiesTemplate, deflated));
+            if (position < 0) {
+                pending.decrementAndGet();
+                return false;
+            }
+            if (sendCallback != null) {
+                callbacks.put(position, sendCallback);
+            }
+            signal();
+            return true;
+        } catch (IOException e) {
+            pending.decrementAndGet();
+            return false;
+        }
+    }
+
+    public void shutdown(long timeoutMills) {
+        running = false;
+        signal();
+        try {
+            drainerThread.join(timeoutMills);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mappedSpool.close();
+    }
+
+    private void drainLoop() {
+        ArrayDeque<DrainEntry> window = new ArrayDeque<>();
+        long cursor = mappedSpool.getCommittedPosition();
+        long failedPosition = -1;
+        int attempts = 0;
+        long retryAt = 0;
+        while (running) {
+            try {
+                boolean retry = false;
+                DrainEntry head;
+                while ((head = window.peekFirst()) != null && head.state != PENDING) {
+                    window.pollFirst();
+                    if (head.state == FAILED) {
+                        attempts = head.position == failedPosition ? attempts + 1 : 1;
+                        failedPosition = head.position;
+                        if (maxAttempts <= 0 || attempts < maxAttempts) {
+                            window.clear();
+                            cursor = mappedSpool.getCommittedPosition();
+                            retryAt = System.currentTimeMillis()
+                                    + (retryIntervalMills << Math.min(attempts - 1, MAX_BACKOFF_SHIFT));
+                            retry = true;
+                            break;
+                        }
+                        // give up on it, the messages published after it stay in the window
+                        failedPosition = -1;
+                        attempts = 0;
+                        commit(head, false);
+                        continue;
+                    }
+                    commit(head, true);
+                }
+                long backoff = retryAt - System.currentTimeMillis();
+                if (!retry && backoff <= 0 && window.size() < drainWindow) {
+                    MappedSpool.Record record = mappedSpool.read(cursor);
+                    if (record != null) {
+                        DrainEntry entry = publish(record);
+                        if (entry != null) {
+                            window.addLast(entry);
+                            cursor = record.getNextPosition();
+                            continue;
+                        }
+                        retry = true;
+                    }
+                }
+                await(backoff > 0 ? backoff : retry ? retryIntervalMills : 100);
+            } catch (Throwable t) {
+                t.printStackTrace();
+                await(retryIntervalMills);
+            }
+        }
+    }
+
+    private void commit(DrainEntry entry, final boolean success) {
+        mappedSpool.commit(entry.nextPosition);
+        pending.decrementAndGet();
+        final SendCallback sendCallback = callbacks.remove(entry.position);
+        if (sendCallback == null) {
+            return;
+        }
+        final String msgId = entry.msgId;
+        Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+                if (success) {
+                    sendCallback.onSuccess(msgId);
+                } else {
+                    sendCallback.onFail();
+                }
+            }
+        };
+        if (callbackExecutor == null) {
+            callback.run();
+        } else {
+            callbackExecutor.execute(callback);
+        }
+    }
+
+    private DrainEntry publish(MappedSpool.Record record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getData()));
+        int flags = in.readByte();
+        String msgId = readString(in);
+        Message message = new Message(readString(in), null);
+        message.setMqtt5MsgExpireInterval(readString(in));
+        message.setMqtt5ContentType(readString(in));
+        String userProperty = readString(in);
+        if (userProperty != null) {
+            message.setMqtt5UserProperty(UserPropertyCodec.decode(userProperty));
+        }
+        int length = in.readInt();
+        if (length >= 0) {
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            message.setPayload(payload);
+        }
+        DrainEntry entry = new DrainEntry(record.getPosition(), record.getNextPosition(), msgId);
+        if (!publisher.publish(msgId, message, (flags & FLAG_DEFLATED) != 0, entry)) {
+            return null;
+        }
+        return entry;
+    }
+
+    private void await(long mills) {
+        synchronized (signal) {
+            if (!signalled && running) {
+                try {
+                    signal.wait(mills);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+            signalled = false;
+        }
+    }
+
+    private void signal() {
+        synchronized (signal) {
+            signalled = true;
+            signal.notifyAll();
+        }
+    }
+
+    private static byte[] encode(String msgId, String mqttTopic, byte[] payload, PropertiesTemplate propertiesTemplate,
+                                 boolean deflated) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64 + (payload == null ? 0 : payload.length));
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeByte(deflated ? FLAG_DEFLATED : 0);
+        writeString(out, msgId);
+        writeString(out, mqttTopic);
+        writeString(out, propertiesTemplate.getMqtt5MsgExpireInterval());
+        writeString(out, propertiesTemplate.getMqtt5ContentType());
+        writeString(out, propertiesTemplate.getMqtt5UserProperty() == null || propertiesTemplate.getMqtt5UserProperty().isEmpty() ?
+                null : UserPropertyCodec.encodeJson(propertiesTemplate.getMqtt5UserProperty()));
+        if (payload == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(payload.length);
+            out.write(payload);
+        }
+        return buf.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public interface Publisher {
+        /**
+         * @return false if the message can not be published right now and should be retried later
+         */
+        boolean publish(String msgId, Message message, boolean deflated, SendCallback sendCallback) throws IOException;
+    }
+
+    private class DrainEntry implements SendCallback {
+        private final long position;
+        private final long nextPosition;
+        private final String msgId;
+        private volatile int state = PENDING;
+
+        DrainEntry(long position, long nextPosition, String msgId) {
+            this.position = position;
+            this.nextPosition = nextPosition;
+            this.msgId = msgId;
+        }
+
+        @Override
+        public void onSuccess(String msgId) {
+            state = ACKED;
+            signal();
+        }
+
+        @Override
+        public void onFail() {
+            state = FAILED;
+            signal();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import java.util.List;
+
+/**
+ * Pending confirms of one channel, in a growable ring holding one slot per tracked sequence number.
+ * Sequence numbers are handed out in increasing order under the channel lock, so the slots stay sorted:
+ * a single confirm finds its slot by binary search and a multiple=true confirm settles a prefix.
+ * Untracked sends take no slot, so the ring is sized by the tracked sends in flight, not by the span of
+ * sequence numbers, and it shrinks back once it is mostly empty.
+ * An entry covering several sequence numbers (a batch) occupies one slot per sequence number.
+ */
+public class PendingConfirmTable {
+    private final int minCapacity;
+    private long[] seqs;
+    private SendCallbackWrapper[] slots;
+    private int mask;
+    /**
+     * ring index of the oldest slot, and number of slots in use from there, settled ones included
+     */
+    private int first;
+    private int count;
+    /**
+     * smallest sequence number the next put accepts
+     */
+    private long tail = 1;
+    private int size;
+
+    public PendingConfirmTable(int initialCapacity) {
+        int capacity = 16;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        this.minCapacity = capacity;
+        this.seqs = new long[capacity];
+        this.slots = new SendCallbackWrapper[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param publishSeqNo first sequence number covered by sendCallbackWrapper, must be larger than
+     *                     every sequence number put before unless the table was drained
+     * @param sendCallbackWrapper
+     * @return false if publishSeqNo went backwards, which means the channel was reset and the table must be drained first
+     */
+    public synchronized boolean put(long publishSeqNo, SendCallbackWrapper sendCallbackWrapper) {
+        if (publishSeqNo < tail) {
+            return false;
+        }
+        int n = sendCallbackWrapper.size();
+        if (count + n > slots.length) {
+            int capacity = slots.length;
+            while (capacity < count + n) {
+                capacity <<= 1;
+            }
+            resize(capacity);
+        }
+        for (int i = 0; i < n; i++) {
+            int index = (first + count) & mask;
+            seqs[index] = publishSeqNo + i;
+            slots[index] = sendCallbackWrapper;
+            count++;
+        }
+        tail = publishSeqNo + n;
+        size += n;
+        return true;
+    }
+
+    /**
+     * settle the entry of publishSeqNo, or every entry up to and including it if multiple
+     *
+     * @param out receives the entries that became fully settled
+     * @return number of sequence numbers settled
+     */
+    public synchronized int remove(long publishSeqNo, boolean multiple, boolean ack, List<SendCallbackWrapper> out) {
+        if (size == 0) {
+            return 0;
+        }
+        int removed = 0;
+        if (multiple) {
+            while (count > 0 && seqs[first] <= publishSeqNo) {
+                removed += settle(first, ack, out);
+                first = (first + 1) & mask;
+                count--;
+            }
+        } else {
+            int i = lowerBound(publishSeqNo);
+            if (i < count && seqs[(first + i) & mask] == publishSeqNo) {
+                removed = settle((first + i) & mask, ack, out);
+            }
+        }
+        size -= removed;
+        advanceHead();
+        return removed;
+    }
+
+    /**
+     * fail whatever is left of sendCallbackWrapper
+     *
+     * @return true if this call settled it completely
+     */
+    public synchronized boolean remove(SendCallbackWrapper sendCallbackWrapper) {
+        long end = sendCallbackWrapper.publishSeqNo + sendCallbackWrapper.size();
+        boolean settled = false;
+        for (int i = lowerBound(sendCallbackWrapper.publishSeqNo); i < count; i++) {
+            int index = (first + i) & mask;
+            if (seqs[index] >= end) {
+                break;
+            }
+            if (slots[index] == sendCallbackWrapper) {
+                slots[index] = null;
+                size--;
+                settled = sendCallbackWrapper.settle(seqs[index], false);
+            }
+        }
+        advanceHead();
+        return settled;
+    }
+
+    /**
+     * put sendCallbackWrapper right after the last entry, for a channel that hands out no sequence numbers yet
+     *
+     * @return the first sequence number assigned to it
+     */
+    public synchronized long append(SendCallbackWrapper sendCallbackWrapper) {
+        long publishSeqNo = tail;
+        put(publishSeqNo, sendCallbackWrapper);
+        return publishSeqNo;
+    }
+
+    /**
+     * take every live entry out without settling it, in sequence order, and restart the sequence space
+     */
+    public synchronized void drain(List<SendCallbackWrapper> out) {
+        for (int i = 0; i < count; i++) {
+            int index = (first + i) & mask;
+            SendCallbackWrapper sendCallbackWrapper = slots[index];
+            if (sendCallbackWrapper != null) {
+                slots[index] = null;
+                if (out.isEmpty() || out.get(out.size() - 1) != sendCallbackWrapper) {
+                    out.add(sendCallbackWrapper);
+                }
+            }
+        }
+        size = 0;
+        first = 0;
+        count = 0;
+        tail = 1;
+        shrink();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    synchronized int capacity() {
+        return slots.length;
+    }
+
+    private int settle(int index, boolean ack, List<SendCallbackWrapper> out) {
+        SendCallbackWrapper sendCallbackWrapper = slots[index];
+        if (sendCallbackWrapper == null) {
+            return 0;
+        }
+        slots[index] = null;
+        if (sendCallbackWrapper.settle(seqs[index], ack)) {
+            out.add(sendCallbackWrapper);
+        }
+        return 1;
+    }
+
+    /**
+     * @return offset from first of the first slot whose sequence number is not smaller than seq, count if none
+     */
+    private int lowerBound(long seq) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (seqs[(first + mid) & mask] < seq) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * drop the slots at the front that were settled out of order
+     */
+    private void advanceHead() {
+        while (count > 0 && slots[first] == null) {
+            first = (first + 1) & mask;
+            count--;
+        }
+        shrink();
+    }
+
+    private void shrink() {
+        int capacity = slots.length;
+        while (capacity > minCapacity && count < capacity >> 2) {
+            capacity >>= 1;
+        }
+        if (capacity < slots.length) {
+            resize(capacity);
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] newSeqs = new long[capacity];
+        SendCallbackWrapper[] newSlots = new SendCallbackWrapper[capacity];
+        for (int i = 0; i < count; i++) {
+            int index = (first + i) & mask;
+            newSeqs[i] = seqs[index];
+            newSlots[i] = slots[index];
+        }
+        seqs = newSeqs;
+        slots = newSlots;
+        mask = capacity - 1;
+        first = 0;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.alibaba.mqtt.server.model.PropertiesTemplate;
+import com.alibaba.mqtt.server.util.TimingWheel;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * A confirm-mode channel with its own publish sequence space and pending confirm table.
+ * Publishers must hold the monitor of this object while registering and publishing.
+ * When the channel is recovered, unconfirmed entries are republished under new sequence numbers
+ * instead of waiting for their timeout, so a recovery may deliver some messages twice.
+ */
+public class PublishChannel {
+    private static final String SEQ_ID = "seqId";
+    private final PendingConfirmTable pendingConfirmTable = new PendingConfirmTable(1024);
+    private final Connection connection;
+    private final TimingWheel timingWheel;
+    private final long sendTimeoutMills;
+    private final Executor callbackExecutor;
+    private volatile Channel channel;
+
+    /**
+     * @param callbackExecutor runs SendCallbacks, so user code never blocks the connection thread handling confirms
+     */
+    public PublishChannel(Connection connection, TimingWheel timingWheel, long sendTimeoutMills, Executor callbackExecutor)
+            throws IOException {
+        this.connection = connection;
+        this.timingWheel = timingWheel;
+        this.sendTimeoutMills = sendTimeoutMills;
+        this.callbackExecutor = callbackExecutor;
+        this.channel = createChannel();
+    }
+
+    private Channel createChannel() throws IOException {
+        Channel channel = connection.createChannel();
+        channel.confirmSelect();
+        channel.addConfirmListener(new ConfirmListener() {
+            private final List<SendCallbackWrapper> confirmed = new ArrayList<>();
+
+            @Override
+            public void handleAck(long deliveryTag, boolean multiple) throws IOException {
+                pendingConfirmTable.remove(deliveryTag, multiple, true, confirmed);
+                completeAll(confirmed);
+            }
+
+            @Override
+            public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+                pendingConfirmTable.remove(deliveryTag, multiple, false, confirmed);
+                completeAll(confirmed);
+            }
+        });
+        if (channel instanceof Recoverable) {
+            ((Recoverable) channel).addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recoverable) {
+                    synchronized (PublishChannel.this) {
+                        replay();
+                    }
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recoverable) {
+                }
+            });
+        }
+        return channel;
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * must be called while holding the monitor of this channel, right before publishing the message(s) it covers
+     *
+     * @param sendCallbackWrapper null if the send is not tracked
+     * @return the sequence number to publish the first covered message with
+     */
+    public long register(SendCallbackWrapper sendCallbackWrapper) {
+        long publishSeqNo = channel.getNextPublishSeqNo();
+        if (sendCallbackWrapper == null) {
+            return publishSeqNo;
+        }
+        sendCallbackWrapper.publishChannel = this;
+        if (!pendingConfirmTable.put(publishSeqNo, sendCallbackWrapper)) {
+            // sequence numbers restarted, the channel was recovered before its recovery listener ran
+            replay();
+            publishSeqNo = channel.getNextPublishSeqNo();
+            if (!pendingConfirmTable.put(publishSeqNo, sendCallbackWrapper)) {
+                // not in confirm mode yet, the recovery listener republishes this entry
+                publishSeqNo = pendingConfirmTable.append(sendCallbackWrapper);
+            }
+        }
+        sendCallbackWrapper.publishSeqNo = publishSeqNo;
+        timingWheel.add(sendCallbackWrapper, sendTimeoutMills);
+        return publishSeqNo;
+    }
+
+    public void basicPublish(String msgId,
+                             long publishSeqNo,
+                             String mqttTopic,
+                             PropertiesTemplate propertiesTemplate,
+                             byte[] payload) throws IOException {
+        Map<String, Object> shared = propertiesTemplate.getHeaders();
+        // sized so it never resizes, the BasicProperties constructor copies it once more
+        Map<String, Object> headers = new HashMap<>((shared.size() + 1) * 4 / 3 + 1);
+        headers.putAll(shared);
+        headers.put(SEQ_ID, publishSeqNo);
+        AMQP.BasicProperties props = new AMQP.BasicProperties(propertiesTemplate.getMqtt5ContentType(), null,
+                headers,
+                null, null, null, null, propertiesTemplate.getMqtt5MsgExpireInterval(), msgId,
+                null, null, null, null, null);
+        channel.basicPublish(mqttTopic, mqttTopic, true, props, payload);
+    }
+
+    /**
+     * republish every unconfirmed entry on the current channel, must hold the monitor of this channel.
+     * Entries keep their timeout, the table lock keeps them from expiring halfway through.
+     */
+    private void replay() {
+        long publishSeqNo = channel.getNextPublishSeqNo();
+        if (publishSeqNo == 0) {
+            // confirm mode is not restored yet
+            return;
+        }
+        synchronized (pendingConfirmTable) {
+            List<SendCallbackWrapper> pending = new ArrayList<>();
+            pendingConfirmTable.drain(pending);
+            // register everything again before publishing, so nothing drained is lost if publishing fails
+            for (SendCallbackWrapper sendCallbackWrapper : pending) {
+                sendCallbackWrapper.reset();
+                sendCallbackWrapper.publishSeqNo = publishSeqNo;
+                pendingConfirmTable.put(publishSeqNo, sendCallbackWrapper);
+                publishSeqNo += sendCallbackWrapper.size();
+            }
+            for (SendCallbackWrapper sendCallbackWrapper : pending) {
+                try {
+                    sendCallbackWrapper.republish(this, sendCallbackWrapper.publishSeqNo);
+                } catch (IOException | RuntimeException e) {
+                    // the channel is gone again (AlreadyClosedException), the rest stays registered
+                    // for the next recovery or its timeout
+                    break;
+                }
+            }
+        }
+    }
+
+    void expire(SendCallbackWrapper sendCallbackWrapper) {
+        if (pendingConfirmTable.remove(sendCallbackWrapper)) {
+            sendCallbackWrapper.done(callbackExecutor);
+        }
+    }
+
+    private void completeAll(List<SendCallbackWrapper> sendCallbackWrappers) {
+        for (SendCallbackWrapper sendCallbackWrapper : sendCallbackWrappers) {
+            timingWheel.cancel(sendCallbackWrapper);
+            sendCallbackWrapper.done(callbackExecutor);
+        }
+        sendCallbackWrappers.clear();
+    }
+
+    /**
+     * recreate the channel if it was closed by the broker, the connection itself is recovered by amqp-client
+     */
+    public void ensureOpen() throws IOException {
+        if (!channel.isOpen()) {
+            Channel newChannel = createChannel();
+            synchronized (this) {
+                channel = newChannel;
+                replay();
+            }
+        }
+    }
+
+    /**
+     * fail every unconfirmed entry, once the connection is closed for good
+     */
+    public void failPending() {
+        List<SendCallbackWrapper> pending = new ArrayList<>();
+        synchronized (this) {
+            pendingConfirmTable.drain(pending);
+        }
+        for (SendCallbackWrapper sendCallbackWrapper : pending) {
+            timingWheel.cancel(sendCallbackWrapper);
+            sendCallbackWrapper.reset();
+            sendCallbackWrapper.fail();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.alibaba.mqtt.server.callback.SendCallback;
+import com.alibaba.mqtt.server.model.PropertiesTemplate;
+import com.alibaba.mqtt.server.util.InFlightLimiter;
+import com.alibaba.mqtt.server.util.TimingWheel;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SendCallbackWrapper extends TimingWheel.Timeout implements Runnable {
+    private final SendCallback sendCallback;
+    private final String msgId;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private boolean success;
+    private InFlightLimiter inFlightLimiter;
+    private long bytes;
+    private String mqttTopic;
+    private byte[] payload;
+    private PropertiesTemplate propertiesTemplate;
+    PublishChannel publishChannel;
+    long publishSeqNo;
+
+    public SendCallbackWrapper(SendCallback sendCallback, String msgId) {
+        this.sendCallback = sendCallback;
+        this.msgId = msgId;
+    }
+
+    /**
+     * the in-flight capacity acquired for this entry, released once it is done
+     */
+    public void setInFlight(InFlightLimiter inFlightLimiter, long bytes) {
+        this.inFlightLimiter = inFlightLimiter;
+        this.bytes = bytes;
+    }
+
+    /**
+     * what was published, kept until the confirm arrives so it can be republished after a channel recovery
+     */
+    public void setPublication(String mqttTopic, byte[] payload, PropertiesTemplate propertiesTemplate) {
+        this.mqttTopic = mqttTopic;
+        this.payload = payload;
+        this.propertiesTemplate = propertiesTemplate;
+    }
+
+    /**
+     * fail an entry that is not registered with a channel, because it was never published or was drained
+     */
+    public void fail() {
+        if (!finished.compareAndSet(false, true)) {
+            return;
+        }
+        for (int i = 0; i < size(); i++) {
+            settle(publishSeqNo + i, false);
+        }
+        finish(null);
+    }
+
+    void done() {
+        done(null);
+    }
+
+    /**
+     * release the in-flight capacity right away and run the callback on callbackExecutor, or inline if it is null.
+     * Only the first call has an effect
+     */
+    void done(Executor callbackExecutor) {
+        if (!finished.compareAndSet(false, true)) {
+            // already failed by a publisher that could not tell whether it was registered
+            return;
+        }
+        finish(callbackExecutor);
+    }
+
+    private void finish(Executor callbackExecutor) {
+        if (inFlightLimiter != null) {
+            inFlightLimiter.release(size(), bytes);
+        }
+        if (callbackExecutor == null) {
+            complete();
+            return;
+        }
+        try {
+            callbackExecutor.execute(this);
+        } catch (RejectedExecutionException e) {
+            complete();
+        }
+    }
+
+    @Override
+    public void run() {
+        complete();
+    }
+
+    /**
+     * number of consecutive sequence numbers covered, starting at publishSeqNo
+     */
+    protected int size() {
+        return 1;
+    }
+
+    /**
+     * publish the covered messages again, under consecutive sequence numbers starting at publishSeqNo
+     */
+    protected void republish(PublishChannel publishChannel, long publishSeqNo) throws IOException {
+        publishChannel.basicPublish(msgId, publishSeqNo, mqttTopic, propertiesTemplate, payload);
+    }
+
+    /**
+     * forget the confirms settled before a republish, called under the pending table lock
+     */
+    protected void reset() {
+    }
+
+    /**
+     * record the confirm of one covered sequence number, called under the pending table lock
+     *
+     * @return true once every covered sequence number is settled
+     */
+    protected boolean settle(long publishSeqNo, boolean ack) {
+        this.success = ack;
+        return true;
+    }
+
+    /**
+     * run the user callback, called once after the last settle and outside any lock
+     */
+    protected void complete() {
+        if (sendCallback == null) {
+            return;
+        }
+        if (success) {
+            sendCallback.onSuccess(msgId);
+        } else {
+            sendCallback.onFail();
+        }
+    }
+
+    @Override
+    protected void expire() {
+        publishChannel.expire(this);
+    }
+}
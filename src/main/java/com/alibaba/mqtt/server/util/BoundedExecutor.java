@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs at most maxConcurrency tasks at a time on a delegate that starts a thread per task, such as the virtual thread
+ * executor of Java 21. Tasks over the cap wait in an unbounded queue and start as running ones finish, so
+ * {@link #execute(Runnable)} never blocks. The caller is expected to bound what it submits.
+ */
+public class BoundedExecutor implements Executor {
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+
+    public BoundedExecutor(ExecutorService delegate, int maxConcurrency) {
+        this.delegate = delegate;
+        this.permits = new Semaphore(Math.max(1, maxConcurrency));
+    }
+
+    /**
+     * @return Executors.newVirtualThreadPerTaskExecutor() on Java 21 and later, null before
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (delegate.isShutdown()) {
+            throw new RejectedExecutionException("executor is shut down");
+        }
+        waiting.offer(task);
+        queueSize.incrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        // a finishing task drains after releasing its permit, so a task queued while all permits are taken is not stranded
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            final Runnable task = waiting.poll();
+            if (task == null) {
+                permits.release();
+                continue;
+            }
+            queueSize.decrementAndGet();
+            try {
+                delegate.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                            drain();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shut down meanwhile, what is still waiting is dropped like by shutdownNow
+                permits.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return tasks waiting for a permit
+     */
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    public void shutdown() {
+        delegate.shutdown();
+    }
+}
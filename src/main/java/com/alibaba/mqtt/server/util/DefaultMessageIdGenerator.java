@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 32 upper case hex chars, the same shape as the dash-less UUID used before:
+ * 48 bits of wall clock millis, 24 bits of process (pid@host hash), 24 bits of generator instance
+ * and a 32 bits counter. No SecureRandom, regex or intermediate String is involved.
+ */
+public class DefaultMessageIdGenerator implements MessageIdGenerator {
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final int PROCESS_ID = ManagementFactory.getRuntimeMXBean().getName().hashCode();
+
+    private final int instanceId = ThreadLocalRandom.current().nextInt();
+    private final AtomicInteger counter = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+    @Override
+    public String nextId() {
+        char[] buf = new char[32];
+        writeHex(buf, 0, System.currentTimeMillis(), 12);
+        writeHex(buf, 12, PROCESS_ID, 6);
+        writeHex(buf, 18, instanceId, 6);
+        writeHex(buf, 24, counter.getAndIncrement(), 8);
+        return new String(buf);
+    }
+
+    private static void writeHex(char[] buf, int offset, long value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            buf[i] = HEX[(int) value & 0xF];
+            value >>>= 4;
+        }
+    }
+}
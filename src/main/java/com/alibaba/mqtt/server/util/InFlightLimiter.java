@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+/**
+ * Bounds the number of messages and payload bytes that are published but not yet confirmed.
+ * A limit not larger than 0 is unlimited, and a single message larger than the byte limit is let
+ * through once nothing else is in flight.
+ */
+public class InFlightLimiter {
+    private final int maxMessages;
+    private final long maxBytes;
+    private int messages;
+    private long bytes;
+
+    public InFlightLimiter(int maxMessages, long maxBytes) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized boolean tryAcquire(int messages, long bytes) {
+        if (!hasRoom(messages, bytes)) {
+            return false;
+        }
+        this.messages += messages;
+        this.bytes += bytes;
+        return true;
+    }
+
+    public synchronized boolean acquire(int messages, long bytes, long timeoutMills) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMills;
+        while (!hasRoom(messages, bytes)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        this.messages += messages;
+        this.bytes += bytes;
+        return true;
+    }
+
+    public synchronized void release(int messages, long bytes) {
+        this.messages -= messages;
+        this.bytes -= bytes;
+        notifyAll();
+    }
+
+    public synchronized int getInFlightMessages() {
+        return messages;
+    }
+
+    public synchronized long getInFlightBytes() {
+        return bytes;
+    }
+
+    private boolean hasRoom(int messages, long bytes) {
+        if (this.messages == 0) {
+            return true;
+        }
+        if (maxMessages > 0 && this.messages + messages > maxMessages) {
+            return false;
+        }
+        return maxBytes <= 0 || this.bytes + bytes <= maxBytes;
+    }
+}
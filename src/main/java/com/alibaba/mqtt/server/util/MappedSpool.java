@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only record log in fixed-size memory-mapped segment files, with a mapped checkpoint of the
+ * first record not yet consumed. A record is [length][crc32][data]; the length is written last, so a
+ * record torn by a crash reads as the end of the log and is dropped when the spool is reopened.
+ * Records are in the page cache once append returns, so they survive a crash of the process; segments
+ * are flushed to disk when the writer moves to the next one and on close.
+ * <p>
+ * A position is the segment index in the high 32 bits and the offset inside the segment in the low 32 bits.
+ */
+public class MappedSpool implements Closeable {
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER = 8;
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final TreeMap<Integer, MappedByteBuffer> segments = new TreeMap<>();
+    private final MappedByteBuffer checkpoint;
+    private final CRC32 crc32 = new CRC32();
+    private int writeSegment;
+    private int writeOffset;
+    private int readSegment;
+    private int readOffset;
+
+    public MappedSpool(File dir, int segmentSize, int maxSegments) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can not create spool directory " + dir);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.checkpoint = map(new File(dir, CHECKPOINT_FILE), 8);
+        long committed = checkpoint.getLong(0);
+        this.readSegment = segment(committed);
+        this.readOffset = offset(committed);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                int index = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                if (index < readSegment) {
+                    file.delete();
+                } else {
+                    segments.put(index, map(file, segmentSize));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(readSegment, map(segmentFile(readSegment), segmentSize));
+            readOffset = 0;
+        }
+        if (segments.firstKey() > readSegment) {
+            readSegment = segments.firstKey();
+            readOffset = 0;
+        }
+        this.writeSegment = segments.lastKey();
+        this.writeOffset = recover(segments.lastEntry().getValue());
+    }
+
+    /**
+     * @return position of the record, or -1 if the spool is full
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        int recordSize = RECORD_HEADER + data.length;
+        if (recordSize > segmentSize) {
+            throw new IOException("record of " + data.length + " bytes does not fit in a spool segment of " + segmentSize);
+        }
+        if (writeOffset + recordSize > segmentSize) {
+            // a reader caught up with the writer holds no segment, the next commit moves it to the new one
+            boolean drained = readSegment == writeSegment && readOffset >= writeOffset;
+            if (!drained && writeSegment + 1 - readSegment >= maxSegments) {
+                return -1;
+            }
+            segments.get(writeSegment).force();
+            writeSegment++;
+            writeOffset = 0;
+            segments.put(writeSegment, map(segmentFile(writeSegment), segmentSize));
+        }
+        MappedByteBuffer segment = segments.get(writeSegment);
+        crc32.reset();
+        crc32.update(data, 0, data.length);
+        segment.putInt(writeOffset + 4, (int) crc32.getValue());
+        ByteBuffer view = segment.duplicate();
+        ((Buffer) view).position(writeOffset + RECORD_HEADER);
+        view.put(data);
+        segment.putInt(writeOffset, data.length);
+        long position = position(writeSegment, writeOffset);
+        writeOffset += recordSize;
+        return position;
+    }
+
+    /**
+     * @return the record at position, null if position is the end of the log
+     */
+    public synchronized Record read(long position) {
+        position = locate(position);
+        if (position < 0) {
+            return null;
+        }
+        int offset = offset(position);
+        MappedByteBuffer segment = segments.get(segment(position));
+        byte[] data = new byte[segment.getInt(offset)];
+        ByteBuffer view = segment.duplicate();
+        ((Buffer) view).position(offset + RECORD_HEADER);
+        view.get(data);
+        return new Record(position, position + RECORD_HEADER + data.length, data);
+    }
+
+    /**
+     * @return position of the first record not committed yet
+     */
+    public synchronized long getCommittedPosition() {
+        return position(readSegment, readOffset);
+    }
+
+    /**
+     * mark every record before position as consumed and delete the segments left behind
+     */
+    public synchronized void commit(long position) {
+        // step over the unused tail of a segment, so a consumed segment is released right away
+        long next = locate(position);
+        if (next >= 0) {
+            position = next;
+        }
+        readSegment = segment(position);
+        readOffset = offset(position);
+        checkpoint.putLong(0, position);
+        while (!segments.isEmpty() && segments.firstKey() < readSegment && segments.firstKey() < writeSegment) {
+            Map.Entry<Integer, MappedByteBuffer> first = segments.pollFirstEntry();
+            segmentFile(first.getKey()).delete();
+        }
+    }
+
+    /**
+     * @return number of records not committed yet, it walks the log, so it is meant for opening a spool
+     */
+    public synchronized int count() {
+        int count = 0;
+        long position = position(readSegment, readOffset);
+        while ((position = locate(position)) >= 0) {
+            count++;
+            position += RECORD_HEADER + segments.get(segment(position)).getInt(offset(position));
+        }
+        return count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return locate(position(readSegment, readOffset)) < 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (MappedByteBuffer segment : segments.values()) {
+            segment.force();
+        }
+        checkpoint.force();
+    }
+
+    /**
+     * @return position of the first record at or after position, skipping the unused tail of segments, -1 if none
+     */
+    private long locate(long position) {
+        int segmentIndex = segment(position);
+        int offset = offset(position);
+        while (segmentIndex < writeSegment || segmentIndex == writeSegment && offset < writeOffset) {
+            MappedByteBuffer segment = segments.get(segmentIndex);
+            if (segment != null && offset + RECORD_HEADER <= segmentSize && segment.getInt(offset) > 0) {
+                return position(segmentIndex, offset);
+            }
+            segmentIndex++;
+            offset = 0;
+        }
+        return -1;
+    }
+
+    /**
+     * @return offset right after the last intact record
+     */
+    private int recover(MappedByteBuffer segment) {
+        int offset = 0;
+        while (offset + RECORD_HEADER <= segmentSize) {
+            int length = segment.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER + length > segmentSize) {
+                break;
+            }
+            ByteBuffer view = segment.duplicate();
+            ((Buffer) view).position(offset + RECORD_HEADER);
+            ((Buffer) view).limit(offset + RECORD_HEADER + length);
+            crc32.reset();
+            crc32.update(view);
+            if ((int) crc32.getValue() != segment.getInt(offset + 4)) {
+                break;
+            }
+            offset += RECORD_HEADER + length;
+        }
+        if (offset + 4 <= segmentSize) {
+            segment.putInt(offset, 0);
+        }
+        return offset;
+    }
+
+    private File segmentFile(int index) {
+        return new File(dir, String.format("%010d%s", index, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segment(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    public static class Record {
+        private final long position;
+        private final long nextPosition;
+        private final byte[] data;
+
+        Record(long position, long nextPosition, byte[] data) {
+            this.position = position;
+            this.nextPosition = nextPosition;
+            this.data = data;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public long getNextPosition() {
+            return nextPosition;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
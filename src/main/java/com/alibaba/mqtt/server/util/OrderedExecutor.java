@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on single-threaded lanes chosen by key, so tasks with the same key run one at a time
+ * in submission order while different keys run in parallel. Each lane queue is bounded and a full
+ * lane blocks the submitting thread until it has room, so a slow key pushes back on its producer instead
+ * of reordering. Only a shut down executor rejects.
+ */
+public class OrderedExecutor {
+    private static final RejectedExecutionHandler BLOCK_WHEN_FULL = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("ordered lane is shut down");
+            }
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("interrupted while waiting for an ordered lane", e);
+            }
+        }
+    };
+
+    private final ThreadPoolExecutor[] lanes;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public OrderedExecutor(String name, int laneNum, int laneQueueSize) {
+        this.lanes = new ThreadPoolExecutor[Math.max(1, laneNum)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(Math.max(1, laneQueueSize)), new ThreadFactoryImpl(name + i + "_", true),
+                    BLOCK_WHEN_FULL);
+            // the lane thread must exist, a task put on the queue directly does not start one
+            lanes[i].prestartCoreThread();
+        }
+    }
+
+    /**
+     * blocks while the lane of key is full
+     *
+     * @param key null to run on any lane
+     * @throws RejectedExecutionException if shut down or interrupted while waiting
+     */
+    public void execute(Object key, Runnable task) {
+        int hash = key == null ? next.getAndIncrement() : spread(key.hashCode());
+        lanes[(hash & Integer.MAX_VALUE) % lanes.length].execute(task);
+    }
+
+    /**
+     * @return tasks waiting in all lanes
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            size += lane.getQueue().size();
+        }
+        return size;
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
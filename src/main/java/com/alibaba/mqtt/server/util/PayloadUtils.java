@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * amqp-client 5.x only publishes a whole byte[] as message body, it then writes body frames straight
+ * out of that array. So a payload is passed through untouched when it is exactly one whole array,
+ * and copied once into an exact-size array otherwise. A whole array passed through is shared with the caller
+ * until the send completes, the producer keeps it for lingering, replay and conflation.
+ */
+public class PayloadUtils {
+
+    public static byte[] toArray(byte[] payload, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > payload.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", payload.length=" + payload.length);
+        }
+        if (offset == 0 && length == payload.length) {
+            return payload;
+        }
+        return Arrays.copyOfRange(payload, offset, offset + length);
+    }
+
+    /**
+     * the remaining bytes of payload, its position is left unchanged
+     */
+    public static byte[] toArray(ByteBuffer payload) {
+        if (payload.hasArray()) {
+            return toArray(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel. Adding and cancelling a timeout is O(1), and {@link #advance()} only visits
+ * the buckets of the ticks that elapsed since its last run, so it should be called once per tick.
+ * Timeouts fire at most one tick late.
+ */
+public class TimingWheel {
+    private final Bucket[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    private final long startNanos = System.nanoTime();
+    private volatile long processedTick;
+
+    public TimingWheel(long tickMills, int wheelSize) {
+        int size = 16;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMills));
+    }
+
+    public long getTickMills() {
+        return TimeUnit.NANOSECONDS.toMillis(tickNanos);
+    }
+
+    /**
+     * the deadline is counted from the last processed tick, so no clock is read here
+     */
+    public void add(Timeout timeout, long delayMills) {
+        long ticks = (TimeUnit.MILLISECONDS.toNanos(delayMills) + tickNanos - 1) / tickNanos;
+        long deadlineTick = processedTick + Math.max(1, ticks) + 1;
+        Bucket bucket = buckets[(int) deadlineTick & mask];
+        boolean expired = false;
+        synchronized (bucket) {
+            if (deadlineTick <= processedTick) {
+                expired = true;
+            } else {
+                timeout.deadlineTick = deadlineTick;
+                bucket.link(timeout);
+            }
+        }
+        if (expired) {
+            timeout.expire();
+        }
+    }
+
+    /**
+     * @return false if the timeout already expired or was never added
+     */
+    public boolean cancel(Timeout timeout) {
+        Bucket bucket = timeout.bucket;
+        if (bucket == null) {
+            return false;
+        }
+        synchronized (bucket) {
+            if (timeout.bucket != bucket) {
+                return false;
+            }
+            bucket.unlink(timeout);
+            return true;
+        }
+    }
+
+    /**
+     * expire every timeout whose deadline tick has passed, the callbacks run on the calling thread
+     */
+    public void advance() {
+        long currentTick = (System.nanoTime() - startNanos) / tickNanos;
+        long from = processedTick + 1;
+        if (currentTick < from) {
+            return;
+        }
+        if (currentTick - from >= buckets.length) {
+            from = currentTick - buckets.length + 1;
+        }
+        List<Timeout> expired = new ArrayList<>();
+        for (long tick = from; tick <= currentTick; tick++) {
+            Bucket bucket = buckets[(int) tick & mask];
+            synchronized (bucket) {
+                Timeout timeout = bucket.first;
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= currentTick) {
+                        bucket.unlink(timeout);
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+                processedTick = tick;
+            }
+        }
+        for (Timeout timeout : expired) {
+            try {
+                timeout.expire();
+            } catch (Throwable t) {
+            }
+        }
+    }
+
+    private static class Bucket {
+        private Timeout first;
+
+        private void link(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = null;
+            timeout.next = first;
+            if (first != null) {
+                first.prev = timeout;
+            }
+            first = timeout;
+        }
+
+        private void unlink(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                first = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    /**
+     * intrusive wheel entry, an instance can be added to one wheel at a time
+     */
+    public abstract static class Timeout {
+        private volatile Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+        private long deadlineTick;
+
+        protected abstract void expire();
+    }
+}
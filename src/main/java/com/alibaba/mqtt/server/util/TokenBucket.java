@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. Instead of counting tokens it keeps the time at which the bucket would be full
+ * again if nothing else were taken, and a caller reserves permits by moving that time forward with one CAS.
+ */
+public class TokenBucket {
+    private final long nanosPerPermit;
+    private final long burstNanos;
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param permitsPerSecond
+     * @param burst number of permits that can be taken at once after being idle
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.nanosPerPermit = (long) (1000000000L / permitsPerSecond);
+        this.burstNanos = Math.max(1, burst) * nanosPerPermit;
+    }
+
+    /**
+     * @param maxWaitNanos
+     * @return nanoseconds to wait before using the permits, or -1 if that is longer than maxWaitNanos,
+     * in which case nothing is taken
+     */
+    public long reserve(int permits, long maxWaitNanos) {
+        long cost = permits * nanosPerPermit;
+        while (true) {
+            long now = System.nanoTime();
+            long current = fullAt.get();
+            long next = Math.max(current, now) + cost;
+            long wait = next - burstNanos - now;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return Math.max(0, wait);
+            }
+        }
+    }
+}
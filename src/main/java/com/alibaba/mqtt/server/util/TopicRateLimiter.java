@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link TokenBucket} per first-level topic, so a burst on one parent topic is smoothed
+ * without slowing down sends to the others.
+ */
+public class TopicRateLimiter {
+    private static final TokenBucket UNLIMITED = new TokenBucket(1, 1);
+
+    private final int defaultPermitsPerSecond;
+    private final Map<String, Integer> permitsPerSecond;
+    private final double burstSeconds;
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultPermitsPerSecond rate of first-level topics not in permitsPerSecond, 0 is unlimited
+     * @param permitsPerSecond        rate of specific first-level topics
+     * @param burstSeconds            how many seconds worth of permits can be taken at once after being idle
+     */
+    public TopicRateLimiter(int defaultPermitsPerSecond, Map<String, Integer> permitsPerSecond, double burstSeconds) {
+        this.defaultPermitsPerSecond = defaultPermitsPerSecond;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burstSeconds = burstSeconds;
+    }
+
+    /**
+     * @return false if the rate of the topic does not allow the send within maxWaitMills
+     */
+    public boolean acquire(String mqttTopic, int permits, long maxWaitMills) throws InterruptedException {
+        TokenBucket tokenBucket = bucketOf(mqttTopic);
+        if (tokenBucket == UNLIMITED) {
+            return true;
+        }
+        long waitNanos = tokenBucket.reserve(permits, TimeUnit.MILLISECONDS.toNanos(maxWaitMills));
+        if (waitNanos < 0) {
+            return false;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    private TokenBucket bucketOf(String mqttTopic) {
+        int index = mqttTopic.indexOf('/');
+        String firstTopic = index < 0 ? mqttTopic : mqttTopic.substring(0, index);
+        TokenBucket tokenBucket = buckets.get(firstTopic);
+        if (tokenBucket == null) {
+            Integer rate = permitsPerSecond == null ? null : permitsPerSecond.get(firstTopic);
+            int permits = rate == null ? defaultPermitsPerSecond : rate;
+            tokenBucket = permits > 0 ? new TokenBucket(permits, (int) Math.ceil(permits * burstSeconds)) : UNLIMITED;
+            TokenBucket existing = buckets.putIfAbsent(firstTopic, tokenBucket);
+            if (existing != null) {
+                tokenBucket = existing;
+            }
+        }
+        return tokenBucket;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.mqtt.server.model.StringPair;
+import com.rabbitmq.client.LongString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes the mqtt5UserProperty header. The binary form follows the MQTT5 string pair layout:
+ * a 2 bytes pair count, then for every pair a 2 bytes length and the UTF-8 bytes of the key, and the same for the value.
+ */
+public class UserPropertyCodec {
+
+    public static String encodeJson(List<StringPair> userProperty) {
+        return JSON.toJSONString(userProperty);
+    }
+
+    public static byte[] encodeBinary(List<StringPair> userProperty) {
+        if (userProperty.size() > 0xFFFF) {
+            throw new IllegalArgumentException("more than 65535 user properties");
+        }
+        byte[][] strings = new byte[userProperty.size() * 2][];
+        int length = 2;
+        for (int i = 0; i < userProperty.size(); i++) {
+            StringPair pair = userProperty.get(i);
+            strings[2 * i] = pair.getKey().getBytes(StandardCharsets.UTF_8);
+            strings[2 * i + 1] = pair.getValue().getBytes(StandardCharsets.UTF_8);
+            length += 4 + strings[2 * i].length + strings[2 * i + 1].length;
+        }
+        byte[] buf = new byte[length];
+        int pos = writeUnsignedShort(buf, 0, userProperty.size());
+        for (byte[] string : strings) {
+            if (string.length > 0xFFFF) {
+                throw new IllegalArgumentException("user property longer than 65535 bytes");
+            }
+            pos = writeUnsignedShort(buf, pos, string.length);
+            System.arraycopy(string, 0, buf, pos, string.length);
+            pos += string.length;
+        }
+        return buf;
+    }
+
+    /**
+     * @param headerValue the raw header, a LongString or String holding JSON, or byte[] holding the binary form
+     */
+    public static List<StringPair> decode(Object headerValue) {
+        if (headerValue instanceof byte[]) {
+            return decodeBinary((byte[]) headerValue);
+        }
+        if (headerValue instanceof LongString || headerValue instanceof String) {
+            return JSON.parseArray(headerValue.toString(), StringPair.class);
+        }
+        return Collections.emptyList();
+    }
+
+    public static List<StringPair> decodeBinary(byte[] buf) {
+        int count = readUnsignedShort(buf, 0);
+        List<StringPair> userProperty = new ArrayList<>(count);
+        int pos = 2;
+        for (int i = 0; i < count; i++) {
+            int keyLength = readUnsignedShort(buf, pos);
+            String key = new String(buf, pos + 2, keyLength, StandardCharsets.UTF_8);
+            pos += 2 + keyLength;
+            int valueLength = readUnsignedShort(buf, pos);
+            String value = new String(buf, pos + 2, valueLength, StandardCharsets.UTF_8);
+            pos += 2 + valueLength;
+            userProperty.add(new StringPair(key, value));
+        }
+        return userProperty;
+    }
+
+    private static int writeUnsignedShort(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) (value >>> 8);
+        buf[pos + 1] = (byte) value;
+        return pos + 2;
+    }
+
+    private static int readUnsignedShort(byte[] buf, int pos) {
+        return ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+    }
+}
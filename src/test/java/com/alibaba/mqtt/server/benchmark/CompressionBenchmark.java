@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.benchmark;
+
+import com.alibaba.mqtt.server.util.DeflateCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Compress and decompress throughput of DeflateCodec on telemetry-like JSON, per payload size and level.
+ * The compression ratio of every parameter set is printed at the end of its trial.
+ * Run the main method with the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"256", "4096", "65536"})
+    private int payloadSize;
+
+    @Param({"1", "6", "9"})
+    private int level;
+
+    private DeflateCodec deflateCodec;
+    private byte[] payload;
+    private byte[] compressed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        deflateCodec = new DeflateCodec(level);
+        Random random = new Random(7);
+        StringBuilder json = new StringBuilder("[");
+        while (json.length() < payloadSize) {
+            json.append("{\"deviceId\":\"device-").append(random.nextInt(1000))
+                    .append("\",\"temperature\":").append(20 + random.nextInt(1500) / 100.0)
+                    .append(",\"humidity\":").append(random.nextInt(100))
+                    .append(",\"status\":\"online\",\"timestamp\":").append(1700000000000L + random.nextInt(100000))
+                    .append("},");
+        }
+        payload = json.substring(0, payloadSize).getBytes(StandardCharsets.UTF_8);
+        compressed = deflateCodec.compress(payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void printRatio() {
+        System.out.printf("%npayloadSize=%d level=%d compressed=%d ratio=%.2f%n",
+                payload.length, level, compressed.length, (double) payload.length / compressed.length);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return deflateCodec.compress(payload);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws DataFormatException {
+        return deflateCodec.decompress(compressed);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CompressionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
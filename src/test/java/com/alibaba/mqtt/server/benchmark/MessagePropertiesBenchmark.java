@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.benchmark;
+
+import com.alibaba.mqtt.server.model.MessageProperties;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.LongString;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of MessageProperties per delivery, lazy decoding against the former eager constructor,
+ * for a listener that reads no property and for one that reads all of them.
+ * Run the main method with the test classpath, add -prof gc to the options to compare allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class MessagePropertiesBenchmark {
+    private AMQP.BasicProperties properties;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put("mqttParentTopic", LongStringHelper.asLongString("telemetry"));
+        headers.put("mqttSecondTopic", LongStringHelper.asLongString("/device-42/temperature"));
+        headers.put("clientId", LongStringHelper.asLongString("GID_TEST@@@device-42"));
+        headers.put("bornTime", LongStringHelper.asLongString("1700000000000"));
+        headers.put("mqtt5UserProperty", LongStringHelper.asLongString("[{\"key\":\"region\",\"value\":\"cn-hangzhou\"}]"));
+        headers.put("qoslevel", 1);
+        properties = new AMQP.BasicProperties.Builder()
+                .contentType("application/json")
+                .expiration("3600")
+                .messageId("0a1b2c3d4e5f")
+                .headers(headers)
+                .build();
+    }
+
+    @Benchmark
+    public Object eagerPayloadOnly() {
+        return new EagerMessageProperties(properties);
+    }
+
+    @Benchmark
+    public Object lazyPayloadOnly() {
+        return new MessageProperties(properties);
+    }
+
+    @Benchmark
+    public void eagerReadAll(Blackhole blackhole) {
+        EagerMessageProperties messageProperties = new EagerMessageProperties(properties);
+        blackhole.consume(messageProperties.firstTopic);
+        blackhole.consume(messageProperties.secondTopic);
+        blackhole.consume(messageProperties.clientId);
+        blackhole.consume(messageProperties.bornTime);
+        blackhole.consume(messageProperties.mqtt5UserProperty);
+        blackhole.consume(messageProperties.mqtt5ContentType);
+        blackhole.consume(messageProperties.mqtt5MsgExpireInterval);
+    }
+
+    @Benchmark
+    public void lazyReadAll(Blackhole blackhole) {
+        MessageProperties messageProperties = new MessageProperties(properties);
+        blackhole.consume(messageProperties.getFirstTopic());
+        blackhole.consume(messageProperties.getSecondTopic());
+        blackhole.consume(messageProperties.getClientId());
+        blackhole.consume(messageProperties.getBornTime());
+        blackhole.consume(messageProperties.getMqtt5UserProperty());
+        blackhole.consume(messageProperties.getMqtt5ContentType());
+        blackhole.consume(messageProperties.getMqtt5MsgExpireInterval());
+    }
+
+    /**
+     * the constructor MessageProperties had before decoding became lazy
+     */
+    private static class EagerMessageProperties {
+        private String firstTopic;
+        private String secondTopic;
+        private String clientId;
+        private Long bornTime;
+        private String mqtt5ContentType;
+        private String mqtt5MsgExpireInterval;
+        private String mqtt5UserProperty;
+        private Object mqtt5UserPropertyHeader;
+
+        EagerMessageProperties(AMQP.BasicProperties properties) {
+            Map<String, Object> headers = properties.getHeaders();
+            if (headers == null) {
+                return;
+            }
+            for (Map.Entry<String, Object> entry : headers.entrySet()) {
+                if ("mqtt5UserProperty".equals(entry.getKey())) {
+                    mqtt5UserPropertyHeader = entry.getValue();
+                }
+                LongString value = (entry.getValue() instanceof LongString) ? (LongString) entry.getValue() : null;
+                if (value == null) {
+                    continue;
+                }
+                if ("mqttParentTopic".equals(entry.getKey())) {
+                    firstTopic = value.toString();
+                } else if ("mqttSecondTopic".equals(entry.getKey())) {
+                    secondTopic = value.toString();
+                } else if ("clientId".equals(entry.getKey())) {
+                    clientId = value.toString();
+                } else if ("bornTime".equals(entry.getKey())) {
+                    bornTime = Long.parseLong(value.toString());
+                } else if ("mqtt5UserProperty".equals(entry.getKey())) {
+                    mqtt5UserProperty = value.toString();
+                }
+            }
+            mqtt5ContentType = properties.getContentType();
+            mqtt5MsgExpireInterval = properties.getExpiration();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MessagePropertiesBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AckTrackerTest {
+    private final List<String> calls = new ArrayList<>();
+    private boolean closed;
+    private final Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+            new Class[]{Channel.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (closed) {
+                        throw new AlreadyClosedException(new ShutdownSignalException(false, false, null, null));
+                    }
+                    calls.add(method.getName() + " " + args[0] + " " + args[1]);
+                    return null;
+                }
+            });
+
+    @Test
+    public void acksEveryDeliveryWithoutBatching() throws IOException {
+        AckTracker ackTracker = new AckTracker(channel, 1);
+        ackTracker.ack(2);
+        ackTracker.ack(1);
+        assertEquals(Arrays.asList("basicAck 2 false", "basicAck 1 false"), calls);
+    }
+
+    @Test
+    public void acksContiguousRunOnce() throws IOException {
+        AckTracker ackTracker = new AckTracker(channel, 4);
+        for (long tag = 2; tag <= 5; tag++) {
+            ackTracker.ack(tag);
+        }
+        assertEquals(Collections.emptyList(), calls);
+        ackTracker.ack(1);
+        assertEquals(Collections.singletonList("basicAck 5 true"), calls);
+
+        ackTracker.ack(6);
+        ackTracker.flush();
+        ackTracker.flush();
+        assertEquals(Arrays.asList("basicAck 5 true", "basicAck 6 true"), calls);
+    }
+
+    @Test
+    public void growsForOutOfOrderCompletion() throws IOException {
+        AckTracker ackTracker = new AckTracker(channel, 2);
+        List<Long> tags = new ArrayList<>();
+        for (long tag = 2; tag <= 200; tag++) {
+            tags.add(tag);
+        }
+        Collections.shuffle(tags);
+        for (long tag : tags) {
+            ackTracker.ack(tag);
+        }
+        assertEquals(Collections.emptyList(), calls);
+        ackTracker.ack(1);
+        assertEquals(Collections.singletonList("basicAck 200 true"), calls);
+    }
+
+    @Test
+    public void nackCompletesTheTag() throws IOException {
+        AckTracker ackTracker = new AckTracker(channel, 2);
+        // the nacked tag counts for the run, acking it cumulatively again is ignored by the broker
+        ackTracker.nack(1, true);
+        ackTracker.ack(2);
+        assertEquals(Arrays.asList("basicNack 1 false", "basicAck 2 true"), calls);
+    }
+
+    @Test
+    public void failedNackDoesNotHoldBackLaterAcks() throws IOException {
+        AckTracker ackTracker = new AckTracker(channel, 2);
+        closed = true;
+        try {
+            ackTracker.nack(new long[]{1, 2}, 2, false);
+            fail();
+        } catch (AlreadyClosedException e) {
+        }
+        closed = false;
+        ackTracker.ack(3);
+        assertEquals(Collections.singletonList("basicAck 3 true"), calls);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import com.alibaba.mqtt.server.callback.SendCallback;
+import com.alibaba.mqtt.server.model.Message;
+import com.alibaba.mqtt.server.model.PropertiesTemplate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSpoolTest {
+    private static final PropertiesTemplate EMPTY_TEMPLATE = new PropertiesTemplate(null, null, null, null);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> published = new CopyOnWriteArrayList<>();
+    private final AtomicInteger poisonAttempts = new AtomicInteger();
+    private MessageSpool messageSpool;
+
+    @Before
+    public void setUp() throws IOException {
+        messageSpool = new MessageSpool(folder.getRoot(), 1024 * 1024, 4, 16, 10, 3, null, new MessageSpool.Publisher() {
+            @Override
+            public boolean publish(String msgId, Message message, boolean deflated, SendCallback sendCallback) {
+                published.add(msgId);
+                if ("poison".equals(msgId)) {
+                    poisonAttempts.incrementAndGet();
+                    sendCallback.onFail();
+                } else {
+                    sendCallback.onSuccess(msgId);
+                }
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        messageSpool.shutdown(1000);
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<String> succeeded = new CopyOnWriteArrayList<>();
+        final AtomicInteger failed = new AtomicInteger();
+        SendCallback sendCallback = new SendCallback() {
+            @Override
+            public void onSuccess(String msgId) {
+                succeeded.add(msgId);
+                done.countDown();
+            }
+
+            @Override
+            public void onFail() {
+                failed.incrementAndGet();
+                done.countDown();
+            }
+        };
+        for (String msgId : new String[]{"before", "poison", "after"}) {
+            assertTrue(messageSpool.append(msgId, "topic", msgId.getBytes(), EMPTY_TEMPLATE,
+                    false, sendCallback));
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, failed.get());
+        assertEquals(3, poisonAttempts.get());
+        assertTrue(succeeded.contains("before"));
+        assertTrue(succeeded.contains("after"));
+        for (int i = 0; i < 100 && !messageSpool.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(messageSpool.isEmpty());
+    }
+
+    @Test
+    public void reopenedSpoolKeepsUncommittedRecords() throws IOException, InterruptedException {
+        messageSpool.shutdown(1000);
+        final CountDownLatch drained = new CountDownLatch(1);
+        MessageSpool.Publisher refusing = new MessageSpool.Publisher() {
+            @Override
+            public boolean publish(String msgId, Message message, boolean deflated, SendCallback sendCallback) {
+                return false;
+            }
+        };
+        messageSpool = new MessageSpool(folder.getRoot(), 1024 * 1024, 4, 16, 10, 3, null, refusing);
+        assertTrue(messageSpool.append("kept", "topic", new byte[]{1, 2, 3}, EMPTY_TEMPLATE,
+                false, null));
+        assertFalse(messageSpool.isEmpty());
+        messageSpool.shutdown(1000);
+
+        messageSpool = new MessageSpool(folder.getRoot(), 1024 * 1024, 4, 16, 10, 3, null, new MessageSpool.Publisher() {
+            @Override
+            public boolean publish(String msgId, Message message, boolean deflated, SendCallback sendCallback) {
+                published.add(msgId + "/" + message.getMqttTopic() + "/" + message.getPayload().length);
+                sendCallback.onSuccess(msgId);
+                drained.countDown();
+                return true;
+            }
+        });
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+        assertEquals("kept/topic/3", published.get(0));
+        for (int i = 0; i < 100 && !messageSpool.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(messageSpool.isEmpty());
+    }
+}
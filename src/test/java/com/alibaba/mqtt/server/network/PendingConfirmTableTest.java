@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.network;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PendingConfirmTableTest {
+    private final PendingConfirmTable table = new PendingConfirmTable(16);
+    private final List<SendCallbackWrapper> out = new ArrayList<>();
+
+    @Test
+    public void singleConfirmSettlesOnlyItsEntry() {
+        Entry first = put(1, 1);
+        Entry second = put(2, 1);
+
+        assertEquals(1, table.remove(2, false, true, out));
+        assertEquals(1, out.size());
+        assertSame(second, out.get(0));
+        assertEquals(1, table.size());
+        assertEquals(0, table.remove(2, false, true, out));
+
+        assertEquals(1, table.remove(1, false, false, out));
+        assertSame(first, out.get(1));
+        assertFalse(first.acked);
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void multipleConfirmSettlesPrefix() {
+        for (long seq = 1; seq <= 5; seq++) {
+            put(seq, 1);
+        }
+        assertEquals(3, table.remove(3, true, true, out));
+        assertEquals(3, out.size());
+        assertEquals(2, table.size());
+        assertEquals(2, table.remove(100, true, true, out));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void batchIsSettledByItsLastSequenceNumber() {
+        Entry batch = put(1, 3);
+        put(4, 1);
+
+        table.remove(1, false, true, out);
+        table.remove(2, false, true, out);
+        assertTrue(out.isEmpty());
+        table.remove(3, false, true, out);
+        assertEquals(1, out.size());
+        assertSame(batch, out.get(0));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        for (long seq = 1; seq <= 100; seq++) {
+            put(seq, 1);
+        }
+        assertEquals(100, table.size());
+        assertEquals(1, table.remove(50, false, true, out));
+        assertEquals(99, table.remove(100, true, true, out));
+        assertEquals(100, out.size());
+    }
+
+    @Test
+    public void expiredEntryIsRemovedOnce() {
+        Entry batch = put(1, 3);
+        table.remove(1, false, true, out);
+
+        assertTrue(table.remove(batch));
+        assertFalse(table.remove(batch));
+        assertEquals(0, table.size());
+        assertFalse(batch.acked);
+    }
+
+    @Test
+    public void sequenceResetRequiresDrain() {
+        Entry first = put(5, 1);
+        Entry batch = put(6, 2);
+        assertFalse(table.put(1, new Entry(1)));
+
+        List<SendCallbackWrapper> pending = new ArrayList<>();
+        table.drain(pending);
+        assertEquals(2, pending.size());
+        assertSame(first, pending.get(0));
+        assertSame(batch, pending.get(1));
+        assertEquals(0, table.size());
+
+        assertTrue(table.put(1, first));
+        assertEquals(2, table.append(batch));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void untrackedSequenceNumbersTakeNoSlot() {
+        Entry first = put(1, 1);
+        Entry batch = put(1000000, 2);
+        Entry last = put(5000000, 1);
+        assertEquals(16, table.capacity());
+
+        assertEquals(1, table.remove(1000001, false, true, out));
+        assertTrue(out.isEmpty());
+        assertEquals(2, table.remove(4999999, true, true, out));
+        assertEquals(2, out.size());
+        assertSame(first, out.get(0));
+        assertSame(batch, out.get(1));
+        assertEquals(1, table.remove(5000000, false, true, out));
+        assertSame(last, out.get(2));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void shrinksOnceSettled() {
+        for (long seq = 1; seq <= 1000; seq++) {
+            put(seq * 10, 1);
+        }
+        assertTrue(table.capacity() >= 1000);
+        assertEquals(999, table.remove(9990, true, true, out));
+        assertEquals(16, table.capacity());
+        assertEquals(1, table.remove(10000, false, true, out));
+        assertEquals(0, table.size());
+    }
+
+    private Entry put(long publishSeqNo, int size) {
+        Entry entry = new Entry(size);
+        entry.publishSeqNo = publishSeqNo;
+        assertTrue(table.put(publishSeqNo, entry));
+        return entry;
+    }
+
+    /**
+     * settled once every covered sequence number is, failed if any of them is nacked
+     */
+    private static class Entry extends SendCallbackWrapper {
+        private final int size;
+        private int remaining;
+        private boolean acked = true;
+
+        Entry(int size) {
+            super(null, "msgId");
+            this.size = size;
+            this.remaining = size;
+        }
+
+        @Override
+        protected int size() {
+            return size;
+        }
+
+        @Override
+        protected boolean settle(long publishSeqNo, boolean ack) {
+            acked &= ack;
+            return --remaining == 0;
+        }
+    }
+}
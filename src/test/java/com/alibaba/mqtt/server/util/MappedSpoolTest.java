@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedSpoolTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsAppendedRecordsInOrder() throws IOException {
+        MappedSpool spool = new MappedSpool(folder.getRoot(), SEGMENT_SIZE, 4);
+        assertTrue(spool.isEmpty());
+        long first = spool.append(new byte[]{1});
+        long second = spool.append(new byte[]{2, 2});
+
+        MappedSpool.Record record = spool.read(spool.getCommittedPosition());
+        assertEquals(first, record.getPosition());
+        assertArrayEquals(new byte[]{1}, record.getData());
+        record = spool.read(record.getNextPosition());
+        assertEquals(second, record.getPosition());
+        assertArrayEquals(new byte[]{2, 2}, record.getData());
+        assertNull(spool.read(record.getNextPosition()));
+
+        spool.commit(record.getNextPosition());
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void reopenResumesFromCheckpoint() throws IOException {
+        MappedSpool spool = new MappedSpool(folder.getRoot(), SEGMENT_SIZE, 4);
+        spool.append(new byte[]{1});
+        spool.append(new byte[]{2});
+        spool.commit(spool.read(spool.getCommittedPosition()).getNextPosition());
+        spool.close();
+
+        spool = new MappedSpool(folder.getRoot(), SEGMENT_SIZE, 4);
+        MappedSpool.Record record = spool.read(spool.getCommittedPosition());
+        assertArrayEquals(new byte[]{2}, record.getData());
+        assertNull(spool.read(record.getNextPosition()));
+        spool.append(new byte[]{3});
+        assertArrayEquals(new byte[]{3}, spool.read(record.getNextPosition()).getData());
+        spool.close();
+    }
+
+    @Test
+    public void reopenDropsTornTail() throws IOException {
+        MappedSpool spool = new MappedSpool(folder.getRoot(), SEGMENT_SIZE, 4);
+        spool.append(new byte[]{1, 1, 1});
+        long torn = spool.append(new byte[]{2, 2, 2});
+        spool.close();
+        // a crash between writing the data and its crc leaves a length over a record that does not match
+        try (RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), "0000000000.spool"), "rw")) {
+            file.seek((int) torn + 8);
+            file.write(9);
+        }
+
+        spool = new MappedSpool(folder.getRoot(), SEGMENT_SIZE, 4);
+        MappedSpool.Record record = spool.read(spool.getCommittedPosition());
+        assertArrayEquals(new byte[]{1, 1, 1}, record.getData());
+        assertNull(spool.read(record.getNextPosition()));
+        assertEquals(torn, spool.append(new byte[]{3}));
+        assertArrayEquals(new byte[]{3}, spool.read(torn).getData());
+        spool.close();
+    }
+
+    @Test
+    public void rollsSegmentsUntilFull() throws IOException {
+        MappedSpool spool = new MappedSpool(folder.getRoot(), SEGMENT_SIZE, 2);
+        byte[] data = new byte[SEGMENT_SIZE / 2];
+        long first = spool.append(data);
+        assertTrue(spool.append(data) >= 0);
+        assertEquals(-1, spool.append(data));
+
+        MappedSpool.Record record = spool.read(first);
+        spool.commit(record.getNextPosition());
+        assertTrue(spool.append(data) >= 0);
+        assertFalse(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void singleSegmentIsReusedOnceDrained() throws IOException {
+        MappedSpool spool = new MappedSpool(folder.getRoot(), SEGMENT_SIZE, 1);
+        byte[] data = new byte[SEGMENT_SIZE / 2];
+        long first = spool.append(data);
+        assertEquals(-1, spool.append(data));
+
+        spool.commit(spool.read(first).getNextPosition());
+        long second = spool.append(data);
+        assertTrue(second >= 0);
+        assertEquals(-1, spool.append(data));
+        MappedSpool.Record record = spool.read(spool.getCommittedPosition());
+        assertEquals(second, record.getPosition());
+        spool.commit(record.getNextPosition());
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+}
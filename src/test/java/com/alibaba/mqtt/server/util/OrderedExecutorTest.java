@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OrderedExecutorTest {
+    @Test
+    public void fullLaneBlocksAndKeepsOrder() throws InterruptedException {
+        OrderedExecutor orderedExecutor = new OrderedExecutor("ordered_executor_test_", 2, 2);
+        final List<Integer> processed = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            final int sequence = i;
+            orderedExecutor.execute("key", new Runnable() {
+                @Override
+                public void run() {
+                    processed.add(sequence);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), processed.get(i));
+        }
+        orderedExecutor.shutdown();
+    }
+
+    @Test
+    public void rejectsOnceShutDown() {
+        OrderedExecutor orderedExecutor = new OrderedExecutor("ordered_executor_test_", 1, 1);
+        orderedExecutor.shutdown();
+        try {
+            orderedExecutor.execute("key", new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+    }
+}
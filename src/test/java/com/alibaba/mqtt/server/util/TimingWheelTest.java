@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.alibaba.mqtt.server.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+    private final TimingWheel timingWheel = new TimingWheel(5, 16);
+
+    @Test
+    public void expiresAfterDelay() throws InterruptedException {
+        CountingTimeout timeout = new CountingTimeout();
+        long begin = System.nanoTime();
+        timingWheel.add(timeout, 50);
+        timingWheel.advance();
+        assertEquals(0, timeout.expired);
+        advanceUntil(timeout, 1000);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) >= 45);
+        assertEquals(1, timeout.expired);
+        assertFalse(timingWheel.cancel(timeout));
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotExpire() throws InterruptedException {
+        CountingTimeout cancelled = new CountingTimeout();
+        CountingTimeout kept = new CountingTimeout();
+        timingWheel.add(cancelled, 20);
+        timingWheel.add(kept, 20);
+        assertTrue(timingWheel.cancel(cancelled));
+        assertFalse(timingWheel.cancel(cancelled));
+        advanceUntil(kept, 1000);
+
+        assertEquals(0, cancelled.expired);
+        assertEquals(1, kept.expired);
+    }
+
+    @Test
+    public void delayLongerThanWheelWaitsForItsRound() throws InterruptedException {
+        // 16 buckets of 5ms cover 80ms, the timeout shares a bucket with earlier ticks
+        CountingTimeout timeout = new CountingTimeout();
+        long begin = System.nanoTime();
+        timingWheel.add(timeout, 200);
+        advanceUntil(timeout, 2000);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) >= 195);
+    }
+
+    private void advanceUntil(CountingTimeout timeout, long timeoutMills) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMills;
+        while (timeout.expired == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(timingWheel.getTickMills());
+            timingWheel.advance();
+        }
+        assertTrue(timeout.latch.await(0, TimeUnit.MILLISECONDS));
+    }
+
+    private static class CountingTimeout extends TimingWheel.Timeout {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile int expired;
+
+        @Override
+        protected void expire() {
+            expired++;
+            latch.countDown();
+        }
+    }
+}